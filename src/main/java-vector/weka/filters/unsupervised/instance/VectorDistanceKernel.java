@@ -0,0 +1,81 @@
+/**
+ * Vector API squared Euclidean distance kernel, for JDK 16 or newer
+ */
+package weka.filters.unsupervised.instance;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD distance kernel built on the Java Vector API. It lives in a separate
+ * source tree, compiled only on JDK 16 or newer, and is loaded by reflection
+ * (see {@link RelevanceClusteringClosestCentrHighRel}); the JVM must be
+ * started with <code>--add-modules jdk.incubator.vector</code>.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+final class VectorDistanceKernel implements DistanceKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	// twice the lanes of SPECIES
+	private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	// number of vectors summed up between two checks of the partial distance
+	private static final int VECTORS_PER_BLOCK = 2;
+
+	@Override
+	public double squaredDistance(double[] rows, int rowOffset, double[] centroids, int centroidOffset,
+			int numAttributes, double bound) {
+		int blockLength = VECTORS_PER_BLOCK * SPECIES.length();
+		int vectorEnd = SPECIES.loopBound(numAttributes);
+		DoubleVector sums = DoubleVector.zero(SPECIES);
+		int i = 0;
+		while (i < vectorEnd) {
+			int blockEnd = Math.min(i + blockLength, vectorEnd);
+			for (; i < blockEnd; i += SPECIES.length()) {
+				DoubleVector diff = DoubleVector.fromArray(SPECIES, rows, rowOffset + i)
+						.sub(DoubleVector.fromArray(SPECIES, centroids, centroidOffset + i));
+				sums = diff.fma(diff, sums);
+			}
+			if (i < vectorEnd && sums.reduceLanes(VectorOperators.ADD) > bound) {
+				return sums.reduceLanes(VectorOperators.ADD);
+			}
+		}
+		double sum = sums.reduceLanes(VectorOperators.ADD);
+		for (; i < numAttributes; i++) {
+			double diff = rows[rowOffset + i] - centroids[centroidOffset + i];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	@Override
+	public double squaredDistance(float[] rows, int rowOffset, float[] centroids, int centroidOffset,
+			int numAttributes, double bound) {
+		// the lanes sum in single precision, each over a fraction of the attributes
+		int blockLength = VECTORS_PER_BLOCK * FLOAT_SPECIES.length();
+		int vectorEnd = FLOAT_SPECIES.loopBound(numAttributes);
+		FloatVector sums = FloatVector.zero(FLOAT_SPECIES);
+		int i = 0;
+		while (i < vectorEnd) {
+			int blockEnd = Math.min(i + blockLength, vectorEnd);
+			for (; i < blockEnd; i += FLOAT_SPECIES.length()) {
+				FloatVector diff = FloatVector.fromArray(FLOAT_SPECIES, rows, rowOffset + i)
+						.sub(FloatVector.fromArray(FLOAT_SPECIES, centroids, centroidOffset + i));
+				sums = diff.fma(diff, sums);
+			}
+			if (i < vectorEnd && sums.reduceLanes(VectorOperators.ADD) > bound) {
+				return sums.reduceLanes(VectorOperators.ADD);
+			}
+		}
+		double sum = sums.reduceLanes(VectorOperators.ADD);
+		for (; i < numAttributes; i++) {
+			double diff = rows[rowOffset + i] - centroids[centroidOffset + i];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,394 @@
+/**
+ * Mini-batch k-means clusterer, used as a fast clustering step of the relevance filters
+ */
+package weka.clusterers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.Vector;
+
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ * Mini-batch k-means (D. Sculley, Web-scale k-means clustering, WWW 2010).
+ * Every iteration draws a small random batch of instances, assigns each of
+ * them to its closest center and moves that center towards it, with a
+ * learning rate of one over the number of instances the center has seen so
+ * far. Only the centers and one batch are held in memory, so the cost of an
+ * iteration does not depend on the size of the data set.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class MiniBatchKMeans extends RandomizableClusterer implements NumberOfClustersRequestable {
+
+	/**
+	 * for serialization purposes
+	 */
+	private static final long serialVersionUID = 1L;
+
+	protected int m_numClusters = 100;
+	protected int m_batchSize = 1024;
+	protected int m_maxIterations = 500;
+	protected double m_tolerance = 1e-6;
+
+	/** the centers, packed one after another */
+	protected double[] m_centers;
+
+	/** the number of attributes of a center */
+	protected int m_numAttributes;
+
+	/** the header of the clustered data */
+	protected Instances m_header;
+
+	/** the number of iterations run by the last build */
+	protected int m_iterations;
+
+	public MiniBatchKMeans() {
+		m_SeedDefault = 1;
+		setSeed(m_SeedDefault);
+	}
+
+	public String globalInfo() {
+		return "Mini-batch k-means: every iteration moves the centers towards a small random batch of instances, "
+				+ "with a learning rate decreasing per center. Much faster than k-means on large data sets, at the "
+				+ "price of slightly worse centers. See D. Sculley, Web-scale k-means clustering, WWW 2010.";
+	}
+
+	@Override
+	public Capabilities getCapabilities() {
+		Capabilities result = super.getCapabilities();
+		result.disableAll();
+		result.enable(Capability.NO_CLASS);
+		result.enable(Capability.NUMERIC_ATTRIBUTES);
+		return result;
+	}
+
+	@Override
+	public void buildClusterer(Instances data) throws Exception {
+		getCapabilities().testWithFail(data);
+
+		int numInstances = data.numInstances();
+		m_numAttributes = data.numAttributes();
+		m_header = new Instances(data, 0);
+		int numClusters = Math.min(m_numClusters, numInstances);
+		m_centers = new double[numClusters * m_numAttributes];
+		long[] counts = new long[numClusters];
+		Random random = new Random(getSeed());
+
+		// distinct random instances as initial centers
+		int[] indices = new int[numInstances];
+		for (int i = 0; i < numInstances; i++) {
+			indices[i] = i;
+		}
+		for (int c = 0; c < numClusters; c++) {
+			int j = c + random.nextInt(numInstances - c);
+			int swap = indices[c];
+			indices[c] = indices[j];
+			indices[j] = swap;
+			copy(data.instance(indices[c]), m_centers, c * m_numAttributes);
+		}
+
+		int batchSize = Math.min(m_batchSize, numInstances);
+		double[] batch = new double[batchSize * m_numAttributes];
+		int[] assignments = new int[batchSize];
+		double[] previous = new double[m_centers.length];
+
+		for (m_iterations = 0; m_iterations < m_maxIterations; m_iterations++) {
+			for (int b = 0; b < batchSize; b++) {
+				copy(data.instance(random.nextInt(numInstances)), batch, b * m_numAttributes);
+				assignments[b] = closest(batch, b * m_numAttributes);
+			}
+
+			System.arraycopy(m_centers, 0, previous, 0, m_centers.length);
+			for (int b = 0; b < batchSize; b++) {
+				int offset = assignments[b] * m_numAttributes;
+				double rate = 1.0 / ++counts[assignments[b]];
+				for (int i = 0; i < m_numAttributes; i++) {
+					m_centers[offset + i] += rate * (batch[b * m_numAttributes + i] - m_centers[offset + i]);
+				}
+			}
+
+			// how far each center moved over the whole mini-batch
+			double maxMovement = 0.0;
+			for (int c = 0; c < numClusters; c++) {
+				double movement = 0.0;
+				for (int i = c * m_numAttributes; i < (c + 1) * m_numAttributes; i++) {
+					double diff = m_centers[i] - previous[i];
+					movement += diff * diff;
+				}
+				maxMovement = Math.max(maxMovement, movement);
+			}
+
+			if (maxMovement < m_tolerance) {
+				m_iterations++;
+				break;
+			}
+		}
+	}
+
+	private static void copy(Instance instance, double[] target, int offset) {
+		for (int i = 0; i < instance.numAttributes(); i++) {
+			target[offset + i] = instance.value(i);
+		}
+	}
+
+	/***
+	 * Finds the center closest to a packed row
+	 */
+	private int closest(double[] rows, int rowOffset) {
+		int best = 0;
+		double min = Double.POSITIVE_INFINITY;
+		int numClusters = m_centers.length / m_numAttributes;
+		for (int c = 0; c < numClusters; c++) {
+			int offset = c * m_numAttributes;
+			double sum = 0.0;
+			for (int i = 0; i < m_numAttributes && sum < min; i++) {
+				double diff = rows[rowOffset + i] - m_centers[offset + i];
+				sum += diff * diff;
+			}
+			if (sum < min) {
+				min = sum;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public int clusterInstance(Instance instance) throws Exception {
+		double[] row = new double[m_numAttributes];
+		copy(instance, row, 0);
+		return closest(row, 0);
+	}
+
+	@Override
+	public int numberOfClusters() throws Exception {
+		return m_centers.length / m_numAttributes;
+	}
+
+	/***
+	 * Gets the cluster centers
+	 * 
+	 * @return the centers, with the header of the clustered data
+	 */
+	public Instances getClusterCentroids() {
+		int numClusters = m_centers.length / m_numAttributes;
+		Instances centroids = new Instances(m_header, numClusters);
+		for (int c = 0; c < numClusters; c++) {
+			double[] values = new double[m_numAttributes];
+			System.arraycopy(m_centers, c * m_numAttributes, values, 0, m_numAttributes);
+			centroids.add(new DenseInstance(1.0, values));
+		}
+		return centroids;
+	}
+
+	@Override
+	public void setNumClusters(int numClusters) throws Exception {
+		if (numClusters <= 0) {
+			throw new Exception("Number of clusters must be > 0");
+		}
+		m_numClusters = numClusters;
+	}
+
+	public int getNumClusters() {
+		return m_numClusters;
+	}
+
+	public String numClustersTipText() {
+		return "The number of clusters";
+	}
+
+	public void setBatchSize(int batchSize) {
+		m_batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return m_batchSize;
+	}
+
+	public String batchSizeTipText() {
+		return "The number of instances drawn at each iteration";
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		m_maxIterations = maxIterations;
+	}
+
+	public int getMaxIterations() {
+		return m_maxIterations;
+	}
+
+	public String maxIterationsTipText() {
+		return "The maximum number of mini-batches";
+	}
+
+	public void setTolerance(double tolerance) {
+		m_tolerance = tolerance;
+	}
+
+	public double getTolerance() {
+		return m_tolerance;
+	}
+
+	public String toleranceTipText() {
+		return "The clustering stops once no center moves, over a mini-batch, by a squared distance of "
+				+ "this much or more";
+	}
+
+	/**
+	 * Returns an enumeration describing the available options.
+	 * 
+	 * @return an enumeration of all the available options.
+	 */
+	@Override
+	public Enumeration<Option> listOptions() {
+		Vector<Option> newVector = new Vector<Option>();
+
+		newVector.add(new Option("\tNumber of clusters." + "\n\t(default: 100).", "N", 1, "-N <num>"));
+
+		newVector.add(new Option("\tNumber of instances per mini-batch." + "\n\t(default: 1024).", "B", 1,
+				"-B <num>"));
+
+		newVector.add(new Option("\tMaximum number of mini-batches." + "\n\t(default: 500).", "I", 1, "-I <num>"));
+
+		newVector.add(new Option("\tConvergence threshold on the squared center movement." + "\n\t(default: 1e-6).",
+				"tolerance", 1, "-tolerance <num>"));
+
+		newVector.addAll(Collections.list(super.listOptions()));
+
+		return newVector.elements();
+	}
+
+	/**
+	 * Parses a given list of options.
+	 * <p/>
+	 * 
+	 * <!-- options-start --> Valid options are:
+	 * <p/>
+	 * 
+	 * <pre>
+	 * -N &lt;num&gt;
+	 *  Number of clusters.
+	 *  (default: 100).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -B &lt;num&gt;
+	 *  Number of instances per mini-batch.
+	 *  (default: 1024).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -I &lt;num&gt;
+	 *  Maximum number of mini-batches.
+	 *  (default: 500).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -tolerance &lt;num&gt;
+	 *  Convergence threshold on the squared center movement.
+	 *  (default: 1e-6).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -S &lt;num&gt;
+	 *  Random number seed.
+	 *  (default 1)
+	 * </pre>
+	 * 
+	 * <!-- options-end -->
+	 * 
+	 * @param options
+	 *            the list of options as an array of strings
+	 * @throws Exception
+	 *             if an option is not supported
+	 */
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		String numClusters = Utils.getOption('N', options);
+		if (numClusters.length() != 0) {
+			setNumClusters(Integer.parseInt(numClusters));
+		}
+
+		String batchSize = Utils.getOption('B', options);
+		if (batchSize.length() != 0) {
+			setBatchSize(Integer.parseInt(batchSize));
+		}
+
+		String maxIterations = Utils.getOption('I', options);
+		if (maxIterations.length() != 0) {
+			setMaxIterations(Integer.parseInt(maxIterations));
+		}
+
+		String tolerance = Utils.getOption("tolerance", options);
+		if (tolerance.length() != 0) {
+			setTolerance(Double.parseDouble(tolerance));
+		}
+
+		super.setOptions(options);
+
+		Utils.checkForRemainingOptions(options);
+	}
+
+	/**
+	 * Gets the current settings of the clusterer.
+	 * 
+	 * @return an array of strings suitable for passing to setOptions
+	 */
+	@Override
+	public String[] getOptions() {
+		ArrayList<String> options = new ArrayList<String>();
+
+		options.add("-N");
+		options.add("" + getNumClusters());
+
+		options.add("-B");
+		options.add("" + getBatchSize());
+
+		options.add("-I");
+		options.add("" + getMaxIterations());
+
+		options.add("-tolerance");
+		options.add("" + getTolerance());
+
+		Collections.addAll(options, super.getOptions());
+
+		return options.toArray(new String[0]);
+	}
+
+	@Override
+	public String toString() {
+		if (m_centers == null) {
+			return "MiniBatchKMeans: no model built yet.";
+		}
+		StringBuilder result = new StringBuilder();
+		result.append("MiniBatchKMeans\n==============\n\n");
+		result.append("Number of clusters: " + (m_centers.length / m_numAttributes) + "\n");
+		result.append("Number of iterations: " + m_iterations + "\n\n");
+		result.append(getClusterCentroids().toString());
+		return result.toString();
+	}
+
+	/**
+	 * Returns the revision string.
+	 * 
+	 * @return the revision
+	 */
+	@Override
+	public String getRevision() {
+		return RevisionUtils.extract("$Revision: 1 $");
+	}
+
+	public static void main(String[] args) {
+		runClusterer(new MiniBatchKMeans(), args);
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Closest centroid search through a ball tree over the centroids
+ */
+package weka.filters.unsupervised.instance;
+
+/**
+ * Answers the closest centroid queries through a ball tree built over the
+ * centroids. Every node stores the mean of its centroids and the radius of the
+ * ball around the mean holding them all, so a node is skipped whenever
+ * <code>d(x, mean) - radius</code> is not below the best distance found so
+ * far. Unlike a KD-tree, the bound does not degrade with the number of
+ * attributes as quickly.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+class BallTreeNearestCentroidFinder extends TreeNearestCentroidFinder {
+
+	/** the means of the nodes, packed one after another */
+	private final double[] m_means;
+
+	/** the radii of the nodes */
+	private final double[] m_radii;
+
+	BallTreeNearestCentroidFinder(double[] centroids, int numAttributes, DistanceKernel kernel) {
+		super(centroids, numAttributes, kernel);
+		m_means = new double[m_maxNodes * numAttributes];
+		m_radii = new double[m_maxNodes];
+		build(0, m_numCentroids);
+		storeLeafCentroids();
+	}
+
+	private int build(int from, int to) {
+		int node = newNode(from, to);
+		int meanOffset = node * m_numAttributes;
+		for (int i = from; i < to; i++) {
+			int offset = m_order[i] * m_numAttributes;
+			for (int a = 0; a < m_numAttributes; a++) {
+				m_means[meanOffset + a] += m_centroids[offset + a];
+			}
+		}
+		double radius = 0.0;
+		for (int a = 0; a < m_numAttributes; a++) {
+			m_means[meanOffset + a] /= to - from;
+		}
+		for (int i = from; i < to; i++) {
+			radius = Math.max(radius, m_kernel.squaredDistance(m_means, meanOffset, m_centroids,
+					m_order[i] * m_numAttributes, m_numAttributes, Double.POSITIVE_INFINITY));
+		}
+		m_radii[node] = Math.sqrt(radius);
+
+		if (to - from > LEAF_SIZE) {
+			int middle = splitByFarthestPair(from, to, meanOffset);
+			m_left[node] = build(from, middle);
+			m_right[node] = build(middle, to);
+		}
+		return node;
+	}
+
+	/***
+	 * Splits a range of centroids around two pivots far apart: the centroid
+	 * farthest from the mean and the centroid farthest from it. Each centroid
+	 * joins the closer pivot, which gives tighter balls than a split along a
+	 * single attribute.
+	 * 
+	 * @return the start of the second half within m_order
+	 */
+	private int splitByFarthestPair(int from, int to, int meanOffset) {
+		int first = farthest(from, to, m_means, meanOffset);
+		int second = farthest(from, to, m_centroids, first * m_numAttributes);
+
+		int middle = from;
+		for (int i = from; i < to; i++) {
+			int offset = m_order[i] * m_numAttributes;
+			double toFirst = m_kernel.squaredDistance(m_centroids, offset, m_centroids, first * m_numAttributes,
+					m_numAttributes, Double.POSITIVE_INFINITY);
+			double toSecond = m_kernel.squaredDistance(m_centroids, offset, m_centroids, second * m_numAttributes,
+					m_numAttributes, Double.POSITIVE_INFINITY);
+			if (toFirst < toSecond) {
+				int swap = m_order[middle];
+				m_order[middle++] = m_order[i];
+				m_order[i] = swap;
+			}
+		}
+
+		if (middle == from || middle == to) {
+			// identical centroids, split anywhere
+			middle = (from + to) >>> 1;
+		}
+		return middle;
+	}
+
+	private int farthest(int from, int to, double[] values, int offset) {
+		int farthest = m_order[from];
+		double max = -1;
+		for (int i = from; i < to; i++) {
+			double distance = m_kernel.squaredDistance(values, offset, m_centroids, m_order[i] * m_numAttributes,
+					m_numAttributes, Double.POSITIVE_INFINITY);
+			if (distance > max) {
+				max = distance;
+				farthest = m_order[i];
+			}
+		}
+		return farthest;
+	}
+
+	@Override
+	protected void search(int node, Query query) {
+		if (m_left[node] < 0) {
+			scanLeaf(node, query);
+			return;
+		}
+		double leftBound = lowerBound(m_left[node], query);
+		double rightBound = lowerBound(m_right[node], query);
+		int near = leftBound <= rightBound ? m_left[node] : m_right[node];
+		int far = leftBound <= rightBound ? m_right[node] : m_left[node];
+		double farBound = Math.max(leftBound, rightBound);
+
+		if (Math.min(leftBound, rightBound) < query.m_bestDistance) {
+			search(near, query);
+		}
+		if (farBound < query.m_bestDistance) {
+			search(far, query);
+		}
+	}
+
+	/***
+	 * The smallest distance possible between a row and a centroid of a node.
+	 * The distance to the mean is only computed as far as needed to tell that
+	 * the node cannot beat the best distance found so far.
+	 */
+	private double lowerBound(int node, Query query) {
+		double limit = query.m_bestDistance + m_radii[node];
+		double distance = Math.sqrt(m_kernel.squaredDistance(query.m_rows, query.m_rowOffset, m_means,
+				node * m_numAttributes, m_numAttributes, limit * limit));
+		return (distance - m_radii[node]) * (1 - BOUND_SLACK);
+	}
+}
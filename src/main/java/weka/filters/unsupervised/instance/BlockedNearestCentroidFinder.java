@@ -0,0 +1,133 @@
+/**
+ * Closest centroid search computing the distances in matrix form
+ */
+package weka.filters.unsupervised.instance;
+
+/**
+ * Computes the distances in matrix form, as
+ * <code>||x||^2 - 2 x.c + ||c||^2</code>. The centroid norms are computed
+ * once; the cross terms are computed for tiles of rows against blocks of
+ * centroids small enough to stay in cache, four centroids at a time, so that
+ * every row value loaded is used four times. The expansion loses precision
+ * when a row is close to a centroid, hence the distance to the winner is
+ * recomputed directly.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+class BlockedNearestCentroidFinder extends NearestCentroidFinder {
+
+	// number of doubles of a tile of rows or of a block of centroids, sized for the L1 cache
+	final static int TILE_SIZE = 2048;
+
+	private final double[] m_centroidNorms;
+
+	private final int m_rowsPerTile;
+
+	private final int m_centroidsPerBlock;
+
+	BlockedNearestCentroidFinder(double[] centroids, int numAttributes, DistanceKernel kernel) {
+		super(centroids, numAttributes, kernel);
+		m_centroidNorms = new double[m_numCentroids];
+		for (int c = 0; c < m_numCentroids; c++) {
+			m_centroidNorms[c] = squaredNorm(centroids, c * numAttributes, numAttributes);
+		}
+		m_rowsPerTile = Math.max(1, TILE_SIZE / numAttributes);
+		// a multiple of four, for the micro kernel
+		m_centroidsPerBlock = Math.max(4, (TILE_SIZE / numAttributes) & ~3);
+	}
+
+	@Override
+	void closest(double[] rows, int firstRow, int numRows, int[] closest, double[] squaredDistances) {
+		double[] rowNorms = new double[m_rowsPerTile];
+		for (int r0 = 0; r0 < numRows; r0 += m_rowsPerTile) {
+			int r1 = Math.min(r0 + m_rowsPerTile, numRows);
+			for (int r = r0; r < r1; r++) {
+				rowNorms[r - r0] = squaredNorm(rows, (firstRow + r) * m_numAttributes, m_numAttributes);
+				squaredDistances[r] = Double.POSITIVE_INFINITY;
+				closest[r] = 0;
+			}
+
+			for (int c0 = 0; c0 < m_numCentroids; c0 += m_centroidsPerBlock) {
+				int c1 = Math.min(c0 + m_centroidsPerBlock, m_numCentroids);
+				for (int r = r0; r < r1; r++) {
+					scanBlock(rows, firstRow + r, r, rowNorms[r - r0], c0, c1, closest, squaredDistances);
+				}
+			}
+
+			for (int r = r0; r < r1; r++) {
+				squaredDistances[r] = m_kernel.squaredDistance(rows, (firstRow + r) * m_numAttributes, m_centroids,
+						closest[r] * m_numAttributes, m_numAttributes, Double.POSITIVE_INFINITY);
+			}
+		}
+	}
+
+	/***
+	 * Compares a row against a block of centroids and updates its closest
+	 * centroid
+	 */
+	private void scanBlock(double[] rows, int row, int r, double rowNorm, int c0, int c1, int[] closest,
+			double[] squaredDistances) {
+		int rowOffset = row * m_numAttributes;
+		double min = squaredDistances[r];
+		int best = closest[r];
+
+		int c = c0;
+		for (; c + 3 < c1; c += 4) {
+			int o0 = c * m_numAttributes;
+			int o1 = o0 + m_numAttributes;
+			int o2 = o1 + m_numAttributes;
+			int o3 = o2 + m_numAttributes;
+			double dot0 = 0.0, dot1 = 0.0, dot2 = 0.0, dot3 = 0.0;
+			for (int i = 0; i < m_numAttributes; i++) {
+				double x = rows[rowOffset + i];
+				dot0 += x * m_centroids[o0 + i];
+				dot1 += x * m_centroids[o1 + i];
+				dot2 += x * m_centroids[o2 + i];
+				dot3 += x * m_centroids[o3 + i];
+			}
+			double d0 = rowNorm - 2 * dot0 + m_centroidNorms[c];
+			double d1 = rowNorm - 2 * dot1 + m_centroidNorms[c + 1];
+			double d2 = rowNorm - 2 * dot2 + m_centroidNorms[c + 2];
+			double d3 = rowNorm - 2 * dot3 + m_centroidNorms[c + 3];
+			if (d0 < min) {
+				min = d0;
+				best = c;
+			}
+			if (d1 < min) {
+				min = d1;
+				best = c + 1;
+			}
+			if (d2 < min) {
+				min = d2;
+				best = c + 2;
+			}
+			if (d3 < min) {
+				min = d3;
+				best = c + 3;
+			}
+		}
+		for (; c < c1; c++) {
+			int offset = c * m_numAttributes;
+			double dot = 0.0;
+			for (int i = 0; i < m_numAttributes; i++) {
+				dot += rows[rowOffset + i] * m_centroids[offset + i];
+			}
+			double distance = rowNorm - 2 * dot + m_centroidNorms[c];
+			if (distance < min) {
+				min = distance;
+				best = c;
+			}
+		}
+
+		squaredDistances[r] = min;
+		closest[r] = best;
+	}
+
+	private static double squaredNorm(double[] values, int offset, int length) {
+		double sum = 0.0;
+		for (int i = offset; i < offset + length; i++) {
+			sum += values[i] * values[i];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,234 @@
+/**
+ * Cache of cluster centers shared by the relevance filters
+ */
+package weka.filters.unsupervised.instance;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Least recently used cache of cluster centers, shared by all the filters of
+ * the virtual machine. The centers are keyed by a fingerprint of the data the
+ * clustering ran on and by the clustering settings, so that cross-validation
+ * folds and repeated experiment runs over the same data cluster it only once.
+ * Each entry is charged to the memory budget of the filter that cached it:
+ * it is kept as long as the entries charged to budgets no larger than its own
+ * fit in that budget, the least recently used entries being evicted first. A
+ * filter with a small budget thus never evicts the entries of a filter with a
+ * larger one, nor has its own evicted by them.
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+class CentroidCache {
+
+	/** estimated size of an entry, besides the centroid values */
+	final static long ENTRY_OVERHEAD = 256;
+
+	/** the cached centers, in access order */
+	private final LinkedHashMap<Key, Entry> m_entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+	/** estimated memory held by the entries charged to each budget, in bytes */
+	private final TreeMap<Long, Long> m_bytesByBudget = new TreeMap<Long, Long>();
+
+	/***
+	 * Gets the centers clustered from the given data with the given settings
+	 *
+	 * @param key
+	 *            the fingerprint of the data and of the settings
+	 * @return the cached centers, or null if there are none
+	 */
+	synchronized Instances get(Key key) {
+		Entry entry = m_entries.get(key);
+		return entry == null ? null : entry.m_centers;
+	}
+
+	/***
+	 * Caches the centers clustered from some data. Centers larger than the
+	 * whole budget are not cached.
+	 *
+	 * @param key
+	 *            the fingerprint of the data and of the settings
+	 * @param centers
+	 *            the cluster centers; they must not be modified afterwards
+	 * @param memoryBudget
+	 *            the memory budget in bytes of the caching filter
+	 */
+	synchronized void put(Key key, Instances centers, long memoryBudget) {
+		long size = sizeOf(centers);
+		if (size > memoryBudget) {
+			return;
+		}
+		Entry previous = m_entries.put(key, new Entry(centers, size, memoryBudget));
+		if (previous != null) {
+			charge(previous.m_memoryBudget, -previous.m_size);
+		}
+		charge(memoryBudget, size);
+		evict();
+	}
+
+	/***
+	 * Drops, least recently used first, the entries whose budget is exceeded.
+	 * The memory held only decreases along the way, so the entries kept remain
+	 * within their budget.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Key, Entry>> entries = m_entries.entrySet().iterator();
+		while (entries.hasNext()) {
+			Entry entry = entries.next().getValue();
+			if (bytesWithin(entry.m_memoryBudget) > entry.m_memoryBudget) {
+				charge(entry.m_memoryBudget, -entry.m_size);
+				entries.remove();
+			}
+		}
+	}
+
+	/***
+	 * Adds to the memory held by the entries charged to a budget
+	 *
+	 * @param memoryBudget
+	 *            the budget
+	 * @param bytes
+	 *            the bytes added, negative for the ones released
+	 */
+	private void charge(long memoryBudget, long bytes) {
+		Long held = m_bytesByBudget.get(memoryBudget);
+		long total = (held == null ? 0 : held) + bytes;
+		if (total == 0) {
+			m_bytesByBudget.remove(memoryBudget);
+		} else {
+			m_bytesByBudget.put(memoryBudget, total);
+		}
+	}
+
+	/***
+	 * Computes the memory an entry is checked against
+	 *
+	 * @param memoryBudget
+	 *            the budget of the entry
+	 * @return the memory held by the entries charged to budgets no larger than
+	 *         the given one, in bytes
+	 */
+	private long bytesWithin(long memoryBudget) {
+		long bytes = 0;
+		for (long held : m_bytesByBudget.headMap(memoryBudget, true).values()) {
+			bytes += held;
+		}
+		return bytes;
+	}
+
+	/***
+	 * Estimates the memory held by a set of centers
+	 *
+	 * @param centers
+	 *            the cluster centers
+	 * @return the estimated size in bytes
+	 */
+	private static long sizeOf(Instances centers) {
+		return ENTRY_OVERHEAD + 8L * centers.numInstances() * (centers.numAttributes() + 4);
+	}
+
+	/***
+	 * Computes the key of some data and of the settings it is clustered with.
+	 * The data is hashed twice, with independent 64 bit mixes, so that
+	 * different data sets practically never share a key.
+	 *
+	 * @param instances
+	 *            the data to be clustered
+	 * @param settings
+	 *            the clusterer and everything else the centers depend on
+	 * @return the key
+	 */
+	static Key fingerprint(Instances instances, String settings) {
+		long first = 0x9E3779B97F4A7C15L;
+		long second = 0xC2B2AE3D27D4EB4FL;
+		for (int j = 0; j < instances.numAttributes(); j++) {
+			Attribute attribute = instances.attribute(j);
+			first = mix(first, attribute.name().hashCode());
+			second = mix(second, attribute.type() * 31L + attribute.numValues());
+		}
+		for (int i = 0; i < instances.numInstances(); i++) {
+			Instance instance = instances.get(i);
+			for (int j = 0; j < instance.numValues(); j++) {
+				long bits = Double.doubleToLongBits(instance.valueSparse(j));
+				long index = instance.index(j);
+				first = mix(first, bits ^ index);
+				second = mix(second + index, bits);
+			}
+			long weight = Double.doubleToLongBits(instance.weight());
+			first = mix(first, weight);
+			second = mix(second, ~weight);
+		}
+		return new Key(first, second, instances.numInstances(), settings);
+	}
+
+	/***
+	 * Folds a value into a running hash, with the finalizer of MurmurHash3
+	 *
+	 * @param hash
+	 *            the running hash
+	 * @param value
+	 *            the value folded in
+	 * @return the new hash
+	 */
+	private static long mix(long hash, long value) {
+		long h = (hash ^ value) * 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * Cached centers, with the budget they are charged to.
+	 */
+	private static class Entry {
+
+		final Instances m_centers;
+		final long m_size;
+		final long m_memoryBudget;
+
+		Entry(Instances centers, long size, long memoryBudget) {
+			m_centers = centers;
+			m_size = size;
+			m_memoryBudget = memoryBudget;
+		}
+	}
+
+	/**
+	 * Fingerprint of the clustered data and of the clustering settings.
+	 */
+	static class Key {
+
+		private final long m_first;
+		private final long m_second;
+		private final int m_numInstances;
+		private final String m_settings;
+
+		Key(long first, long second, int numInstances, String settings) {
+			m_first = first;
+			m_second = second;
+			m_numInstances = numInstances;
+			m_settings = settings;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return m_first == key.m_first && m_second == key.m_second && m_numInstances == key.m_numInstances
+					&& m_settings.equals(key.m_settings);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (m_first ^ (m_first >>> 32)) * 31 + m_settings.hashCode();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * Reads the cluster centers out of a built clusterer
+ */
+package weka.filters.unsupervised.instance;
+
+import weka.clusterers.Clusterer;
+import weka.core.Instances;
+
+/**
+ * Adapter reading the cluster centers out of a built clusterer. Weka has no
+ * common interface for this, every clusterer exposing its centers under a
+ * name of its own; see {@link CentroidExtractors} for the known ones.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+interface CentroidExtractor {
+
+	/***
+	 * Tells whether the centers of a clusterer can be extracted
+	 * 
+	 * @param clusterer
+	 *            a clusterer, built or not
+	 * @return true if this adapter handles the clusterer
+	 */
+	boolean handles(Clusterer clusterer);
+
+	/***
+	 * Reads the cluster centers
+	 * 
+	 * @param clusterer
+	 *            a built clusterer, handled by this adapter
+	 * @return the centers, with the header of the clustered data
+	 */
+	Instances getCentroids(Clusterer clusterer);
+}
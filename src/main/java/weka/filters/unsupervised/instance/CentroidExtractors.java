@@ -0,0 +1,93 @@
+/**
+ * Cluster center extractors of the clusterers supported by the relevance filter
+ */
+package weka.filters.unsupervised.instance;
+
+import weka.clusterers.Canopy;
+import weka.clusterers.Clusterer;
+import weka.clusterers.FarthestFirst;
+import weka.clusterers.MiniBatchKMeans;
+import weka.clusterers.SimpleKMeans;
+import weka.clusterers.XMeans;
+import weka.core.Instances;
+
+/**
+ * The centroid adapters of the clusterers which can back the relevance
+ * filter.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+final class CentroidExtractors {
+
+	static final CentroidExtractor[] EXTRACTORS = { new CentroidExtractor() {
+		@Override
+		public boolean handles(Clusterer clusterer) {
+			return clusterer instanceof XMeans;
+		}
+
+		@Override
+		public Instances getCentroids(Clusterer clusterer) {
+			return ((XMeans) clusterer).getClusterCenters();
+		}
+	}, new CentroidExtractor() {
+		@Override
+		public boolean handles(Clusterer clusterer) {
+			return clusterer instanceof SimpleKMeans;
+		}
+
+		@Override
+		public Instances getCentroids(Clusterer clusterer) {
+			return ((SimpleKMeans) clusterer).getClusterCentroids();
+		}
+	}, new CentroidExtractor() {
+		@Override
+		public boolean handles(Clusterer clusterer) {
+			return clusterer instanceof FarthestFirst;
+		}
+
+		@Override
+		public Instances getCentroids(Clusterer clusterer) {
+			return ((FarthestFirst) clusterer).getClusterCentroids();
+		}
+	}, new CentroidExtractor() {
+		@Override
+		public boolean handles(Clusterer clusterer) {
+			return clusterer instanceof Canopy;
+		}
+
+		@Override
+		public Instances getCentroids(Clusterer clusterer) {
+			return ((Canopy) clusterer).getCanopies();
+		}
+	}, new CentroidExtractor() {
+		@Override
+		public boolean handles(Clusterer clusterer) {
+			return clusterer instanceof MiniBatchKMeans;
+		}
+
+		@Override
+		public Instances getCentroids(Clusterer clusterer) {
+			return ((MiniBatchKMeans) clusterer).getClusterCentroids();
+		}
+	}, };
+
+	private CentroidExtractors() {
+	}
+
+	/***
+	 * Finds the adapter of a clusterer
+	 * 
+	 * @param clusterer
+	 *            a clusterer, built or not
+	 * @return the adapter, or null if the centers of this clusterer cannot be
+	 *         extracted
+	 */
+	static CentroidExtractor forClusterer(Clusterer clusterer) {
+		for (CentroidExtractor extractor : EXTRACTORS) {
+			if (extractor.handles(clusterer)) {
+				return extractor;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * Binary file format of the centroid model of the relevance filter
+ */
+package weka.filters.unsupervised.instance;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.filters.unsupervised.instance.RelevanceClusteringClosestCentrHighRel.ClosestCentroidImpact;
+import weka.filters.unsupervised.instance.RelevanceClusteringClosestCentrHighRel.RelevanceFunctionModifier;
+
+/**
+ * The centroids learned by the relevance filter, stored in a compact binary
+ * file so that the relevance step can be applied without clustering again.
+ * The file holds, big-endian:
+ * <ul>
+ * <li>the magic number and the format version,</li>
+ * <li>the number of attributes and of centroids,</li>
+ * <li>the name and the type of each attribute, class excluded, to check the
+ * layout of the data the model is applied on,</li>
+ * <li>the order in which the attributes are scanned,</li>
+ * <li>the closest centroid impact and the relevance function modifier, which
+ * the shift below depends on,</li>
+ * <li>the shift added to the relevances, so that all the weights are
+ * positive,</li>
+ * <li>the centroids, packed row by row in scan order.</li>
+ * </ul>
+ * The file is memory-mapped when loaded, and the centroids are bulk copied out
+ * of the mapping rather than read value by value.
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+class CentroidModel {
+
+	/** "RCCM" */
+	final static int MAGIC = 0x5243434D;
+
+	final static int VERSION = 2;
+
+	/** names of the attributes, class excluded */
+	protected String[] m_attributeNames;
+
+	/** types of the attributes, class excluded */
+	protected int[] m_attributeTypes;
+
+	/** order in which the attributes are scanned */
+	protected int[] m_attributeOrder;
+
+	/** the centroids, packed row by row in scan order */
+	protected double[] m_centroids;
+
+	/** the settings the relevances were computed with */
+	protected ClosestCentroidImpact m_closestCentroidImpact;
+	protected RelevanceFunctionModifier m_relevanceFunctionModifier;
+
+	/** added to the relevances */
+	protected double m_relevanceShift;
+
+	CentroidModel(String[] attributeNames, int[] attributeTypes, int[] attributeOrder, double[] centroids,
+			ClosestCentroidImpact closestCentroidImpact, RelevanceFunctionModifier relevanceFunctionModifier,
+			double relevanceShift) {
+		m_attributeNames = attributeNames;
+		m_attributeTypes = attributeTypes;
+		m_attributeOrder = attributeOrder;
+		m_centroids = centroids;
+		m_closestCentroidImpact = closestCentroidImpact;
+		m_relevanceFunctionModifier = relevanceFunctionModifier;
+		m_relevanceShift = relevanceShift;
+	}
+
+	/***
+	 * Writes the model to a file
+	 *
+	 * @param file
+	 *            the file, overwritten if it exists
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(m_attributeNames.length);
+			out.writeInt(m_attributeNames.length == 0 ? 0 : m_centroids.length / m_attributeNames.length);
+			for (int j = 0; j < m_attributeNames.length; j++) {
+				out.writeUTF(m_attributeNames[j]);
+				out.writeInt(m_attributeTypes[j]);
+			}
+			for (int attribute : m_attributeOrder) {
+				out.writeInt(attribute);
+			}
+			out.writeUTF(m_closestCentroidImpact.name());
+			out.writeUTF(m_relevanceFunctionModifier.name());
+			out.writeDouble(m_relevanceShift);
+			for (double value : m_centroids) {
+				out.writeDouble(value);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/***
+	 * Reads a model from a file, through a read-only memory mapping
+	 *
+	 * @param file
+	 *            the file written by {@link #save(File)}
+	 * @return the model
+	 * @throws Exception
+	 *             if the file cannot be read or is not a model
+	 */
+	static CentroidModel load(File file) throws Exception {
+		FileInputStream stream = new FileInputStream(file);
+		MappedByteBuffer buffer;
+		try {
+			FileChannel channel = stream.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// the mapping stays valid once the channel is closed
+			stream.close();
+		}
+
+		if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+			throw new Exception(file + " is not a centroid model");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new Exception("Unsupported centroid model version " + version + " in " + file);
+		}
+		int numAttributes = buffer.getInt();
+		int numCentroids = buffer.getInt();
+
+		// the header holds modified UTF-8 strings, left to DataInputStream
+		DataInputStream in = new DataInputStream(new BufferInputStream(buffer));
+		String[] attributeNames = new String[numAttributes];
+		int[] attributeTypes = new int[numAttributes];
+		for (int j = 0; j < numAttributes; j++) {
+			attributeNames[j] = in.readUTF();
+			attributeTypes[j] = in.readInt();
+		}
+		int[] attributeOrder = new int[numAttributes];
+		for (int j = 0; j < numAttributes; j++) {
+			attributeOrder[j] = in.readInt();
+		}
+		ClosestCentroidImpact closestCentroidImpact = ClosestCentroidImpact.valueOf(in.readUTF());
+		RelevanceFunctionModifier relevanceFunctionModifier = RelevanceFunctionModifier.valueOf(in.readUTF());
+		double relevanceShift = in.readDouble();
+
+		double[] centroids = new double[numCentroids * numAttributes];
+		if (buffer.remaining() < 8L * centroids.length) {
+			throw new Exception(file + " is truncated");
+		}
+		buffer.asDoubleBuffer().get(centroids);
+
+		return new CentroidModel(attributeNames, attributeTypes, attributeOrder, centroids, closestCentroidImpact,
+				relevanceFunctionModifier, relevanceShift);
+	}
+
+	/***
+	 * Checks that the model applies to some data
+	 *
+	 * @param instances
+	 *            the data, with or without a class
+	 * @throws Exception
+	 *             if the attributes of the data, class excluded, differ from
+	 *             the ones of the model in name or in type
+	 */
+	void checkLayout(Instances instances) throws Exception {
+		String[] names = attributeNames(instances);
+		int[] types = attributeTypes(instances);
+		if (names.length != m_attributeNames.length) {
+			throw new Exception("The centroid model has " + m_attributeNames.length + " attributes, the data has "
+					+ names.length);
+		}
+		for (int j = 0; j < m_attributeNames.length; j++) {
+			if (!names[j].equals(m_attributeNames[j])) {
+				throw new Exception("Attribute " + (j + 1) + " of the centroid model is " + m_attributeNames[j]
+						+ ", in the data it is " + names[j]);
+			}
+			if (types[j] != m_attributeTypes[j]) {
+				throw new Exception("Attribute " + m_attributeNames[j] + " is "
+						+ Attribute.typeToString(m_attributeTypes[j]) + " in the centroid model, "
+						+ Attribute.typeToString(types[j]) + " in the data");
+			}
+		}
+	}
+
+	/***
+	 * Checks that the model is applied with the settings it was saved with,
+	 * since the relevance shift depends on them
+	 *
+	 * @param closestCentroidImpact
+	 *            the closest centroid impact of the filter
+	 * @param relevanceFunctionModifier
+	 *            the relevance function modifier of the filter
+	 * @throws Exception
+	 *             if the settings differ from the ones of the model
+	 */
+	void checkSettings(ClosestCentroidImpact closestCentroidImpact,
+			RelevanceFunctionModifier relevanceFunctionModifier) throws Exception {
+		if (closestCentroidImpact != m_closestCentroidImpact
+				|| relevanceFunctionModifier != m_relevanceFunctionModifier) {
+			throw new Exception("The centroid model was saved with -C " + m_closestCentroidImpact + " -F "
+					+ m_relevanceFunctionModifier + ", it cannot be applied with -C " + closestCentroidImpact + " -F "
+					+ relevanceFunctionModifier);
+		}
+	}
+
+	/***
+	 * Gets the names of the attributes of some data, class excluded
+	 *
+	 * @param instances
+	 *            the data, with or without a class
+	 * @return the attribute names
+	 */
+	static String[] attributeNames(Instances instances) {
+		int classIndex = instances.classIndex();
+		String[] names = new String[classIndex < 0 ? instances.numAttributes() : instances.numAttributes() - 1];
+		for (int j = 0; j < names.length; j++) {
+			names[j] = instances.attribute(classIndex >= 0 && j >= classIndex ? j + 1 : j).name();
+		}
+		return names;
+	}
+
+	/***
+	 * Gets the types of the attributes of some data, class excluded
+	 *
+	 * @param instances
+	 *            the data, with or without a class
+	 * @return the attribute types
+	 */
+	static int[] attributeTypes(Instances instances) {
+		int classIndex = instances.classIndex();
+		int[] types = new int[classIndex < 0 ? instances.numAttributes() : instances.numAttributes() - 1];
+		for (int j = 0; j < types.length; j++) {
+			types[j] = instances.attribute(classIndex >= 0 && j >= classIndex ? j + 1 : j).type();
+		}
+		return types;
+	}
+
+	/**
+	 * Input stream over the remaining bytes of a buffer, advancing its position.
+	 */
+	private static class BufferInputStream extends InputStream {
+
+		private final MappedByteBuffer m_buffer;
+
+		BufferInputStream(MappedByteBuffer buffer) {
+			m_buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return m_buffer.hasRemaining() ? m_buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!m_buffer.hasRemaining()) {
+				return -1;
+			}
+			length = Math.min(length, m_buffer.remaining());
+			m_buffer.get(bytes, offset, length);
+			return length;
+		}
+	}
+}
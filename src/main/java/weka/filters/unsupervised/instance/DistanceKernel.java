@@ -0,0 +1,47 @@
+/**
+ * Squared Euclidean distance kernel of the closest centroid searches
+ */
+package weka.filters.unsupervised.instance;
+
+/**
+ * Computes the squared Euclidean distance between a data row and a centroid
+ * packed in a flat array. Implementations are stateless and can be shared
+ * between threads.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+interface DistanceKernel {
+
+	/***
+	 * Computes the squared Euclidean distance between a data row and a
+	 * centroid. The computation may stop early once the partial sum exceeds a
+	 * given bound.
+	 * 
+	 * @param rows
+	 *            the packed data rows (class ommited)
+	 * @param rowOffset
+	 *            the position of the data row within <code>rows</code>
+	 * @param centroids
+	 *            the packed centroids
+	 * @param centroidOffset
+	 *            the position of the centroid within <code>centroids</code>
+	 * @param numAttributes
+	 *            the number of values of a row and of a centroid
+	 * @param bound
+	 *            the distance above which the exact value is of no interest
+	 * @return the squared distance, or a partial sum greater than
+	 *         <code>bound</code>
+	 */
+	double squaredDistance(double[] rows, int rowOffset, double[] centroids, int centroidOffset, int numAttributes,
+			double bound);
+
+	/***
+	 * Computes the squared Euclidean distance between a data row and a
+	 * centroid stored in single precision; the result has single precision
+	 * accuracy.
+	 * 
+	 * @see #squaredDistance(double[], int, double[], int, int, double)
+	 */
+	double squaredDistance(float[] rows, int rowOffset, float[] centroids, int centroidOffset, int numAttributes,
+			double bound);
+}
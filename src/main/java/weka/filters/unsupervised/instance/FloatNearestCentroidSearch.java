@@ -0,0 +1,22 @@
+/**
+ * Closest centroid search over single precision rows
+ */
+package weka.filters.unsupervised.instance;
+
+/**
+ * Finds the closest centroid for blocks of single precision data rows. Only
+ * the searches which compute every distance through the kernel implement it;
+ * the others rely on exact bounds which rounding to single precision breaks.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+interface FloatNearestCentroidSearch {
+
+	/***
+	 * Finds the closest centroid of each row in a block of single precision
+	 * rows
+	 * 
+	 * @see NearestCentroidFinder#closest(double[], int, int, int[], double[])
+	 */
+	void closest(float[] rows, int firstRow, int numRows, int[] closest, double[] squaredDistances);
+}
@@ -0,0 +1,61 @@
+/**
+ * Closest centroid search through a KD-tree over the centroids
+ */
+package weka.filters.unsupervised.instance;
+
+/**
+ * Answers the closest centroid queries through a KD-tree built over the
+ * centroids. Every inner node splits its centroids at the median of the
+ * attribute with the largest spread; a query descends into the side of the
+ * split holding the row first and visits the other side only if the split
+ * plane is closer than the best centroid found so far. Efficient when the
+ * number of centroids is large compared to <code>2^d</code>.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+class KDTreeNearestCentroidFinder extends TreeNearestCentroidFinder {
+
+	/** the attribute an inner node splits on */
+	private final int[] m_splitAttribute;
+
+	/** the value an inner node splits at */
+	private final double[] m_splitValue;
+
+	KDTreeNearestCentroidFinder(double[] centroids, int numAttributes, DistanceKernel kernel) {
+		super(centroids, numAttributes, kernel);
+		m_splitAttribute = new int[m_maxNodes];
+		m_splitValue = new double[m_maxNodes];
+		build(0, m_numCentroids);
+		storeLeafCentroids();
+	}
+
+	private int build(int from, int to) {
+		int node = newNode(from, to);
+		if (to - from <= LEAF_SIZE) {
+			return node;
+		}
+		int attribute = widestAttribute(from, to);
+		int middle = (from + to) >>> 1;
+		sortByAttribute(from, to, attribute);
+		m_splitAttribute[node] = attribute;
+		m_splitValue[node] = m_centroids[m_order[middle] * m_numAttributes + attribute];
+		m_left[node] = build(from, middle);
+		m_right[node] = build(middle, to);
+		return node;
+	}
+
+	@Override
+	protected void search(int node, Query query) {
+		if (m_left[node] < 0) {
+			scanLeaf(node, query);
+			return;
+		}
+		double diff = query.m_rows[query.m_rowOffset + m_splitAttribute[node]] - m_splitValue[node];
+		int near = diff < 0 ? m_left[node] : m_right[node];
+		int far = diff < 0 ? m_right[node] : m_left[node];
+		search(near, query);
+		if (diff * diff * (1 - BOUND_SLACK) < query.m_best) {
+			search(far, query);
+		}
+	}
+}
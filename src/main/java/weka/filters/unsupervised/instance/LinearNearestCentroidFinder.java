@@ -0,0 +1,77 @@
+/**
+ * Closest centroid search scanning every centroid
+ */
+package weka.filters.unsupervised.instance;
+
+/**
+ * Scans all the centroids for every row. The minimum is tracked while
+ * scanning and a candidate is abandoned as soon as its partial sum exceeds the
+ * best distance found so far.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+class LinearNearestCentroidFinder extends NearestCentroidFinder implements FloatNearestCentroidSearch {
+
+	/** the packed centroids in single precision, null unless requested */
+	private final float[] m_floatCentroids;
+
+	LinearNearestCentroidFinder(double[] centroids, int numAttributes, DistanceKernel kernel) {
+		this(centroids, numAttributes, kernel, false);
+	}
+
+	/***
+	 * Builds the search, optionally over single precision rows as well
+	 * 
+	 * @param singlePrecision
+	 *            whether the single precision search will be used, which
+	 *            needs a single precision copy of the centroids
+	 */
+	LinearNearestCentroidFinder(double[] centroids, int numAttributes, DistanceKernel kernel, boolean singlePrecision) {
+		super(centroids, numAttributes, kernel);
+		m_floatCentroids = singlePrecision ? toFloat(centroids) : null;
+	}
+
+	@Override
+	void closest(double[] rows, int firstRow, int numRows, int[] closest, double[] squaredDistances) {
+		for (int r = 0; r < numRows; r++) {
+			int rowOffset = (firstRow + r) * m_numAttributes;
+			int best = 0;
+			double min = m_kernel.squaredDistance(rows, rowOffset, m_centroids, 0, m_numAttributes,
+					Double.POSITIVE_INFINITY);
+
+			for (int i = 1; i < m_numCentroids; i++) {
+				double distance = m_kernel.squaredDistance(rows, rowOffset, m_centroids, i * m_numAttributes,
+						m_numAttributes, min);
+				if (distance < min) {
+					min = distance;
+					best = i;
+				}
+			}
+
+			closest[r] = best;
+			squaredDistances[r] = min;
+		}
+	}
+
+	@Override
+	public void closest(float[] rows, int firstRow, int numRows, int[] closest, double[] squaredDistances) {
+		for (int r = 0; r < numRows; r++) {
+			int rowOffset = (firstRow + r) * m_numAttributes;
+			int best = 0;
+			double min = m_kernel.squaredDistance(rows, rowOffset, m_floatCentroids, 0, m_numAttributes,
+					Double.POSITIVE_INFINITY);
+
+			for (int i = 1; i < m_numCentroids; i++) {
+				double distance = m_kernel.squaredDistance(rows, rowOffset, m_floatCentroids, i * m_numAttributes,
+						m_numAttributes, min);
+				if (distance < min) {
+					min = distance;
+					best = i;
+				}
+			}
+
+			closest[r] = best;
+			squaredDistances[r] = min;
+		}
+	}
+}
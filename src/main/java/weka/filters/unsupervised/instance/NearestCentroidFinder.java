@@ -0,0 +1,68 @@
+/**
+ * Base class of the closest centroid searches of the relevance filter
+ */
+package weka.filters.unsupervised.instance;
+
+/**
+ * Finds the closest centroid for blocks of data rows. The centroids are packed
+ * row by row into a flat array and never change after construction. Any
+ * index built over the centroids is read only once constructed, so an
+ * instance can be shared between threads.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+abstract class NearestCentroidFinder {
+
+	/** the packed centroids */
+	protected final double[] m_centroids;
+
+	/** the number of values of a centroid */
+	protected final int m_numAttributes;
+
+	/** the number of centroids */
+	protected final int m_numCentroids;
+
+	/** computes the distance between a row and a centroid */
+	protected final DistanceKernel m_kernel;
+
+	protected NearestCentroidFinder(double[] centroids, int numAttributes, DistanceKernel kernel) {
+		m_centroids = centroids;
+		m_numAttributes = numAttributes;
+		m_numCentroids = centroids.length / numAttributes;
+		m_kernel = kernel;
+	}
+
+	/***
+	 * Rounds values to single precision
+	 * 
+	 * @param values
+	 *            the values
+	 * @return the values in single precision
+	 */
+	static float[] toFloat(double[] values) {
+		float[] floats = new float[values.length];
+		for (int i = 0; i < values.length; i++) {
+			floats[i] = (float) values[i];
+		}
+		return floats;
+	}
+
+	/***
+	 * Finds the closest centroid of each row in a block
+	 * 
+	 * @param rows
+	 *            the data rows (class missing), packed one after another
+	 * @param firstRow
+	 *            the index within <code>rows</code> of the first row to be
+	 *            processed
+	 * @param numRows
+	 *            the number of rows to be processed
+	 * @param closest
+	 *            receives the index of the closest centroid of each row,
+	 *            starting at 0
+	 * @param squaredDistances
+	 *            receives the squared distance to the closest centroid of each
+	 *            row, starting at 0
+	 */
+	abstract void closest(double[] rows, int firstRow, int numRows, int[] closest, double[] squaredDistances);
+}
@@ -0,0 +1,162 @@
+/**
+ * Closest centroid search pruned with the triangle inequality
+ */
+package weka.filters.unsupervised.instance;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Skips the centroids which provably cannot be the closest one, based on the
+ * triangle inequality. The centroid to centroid distances are computed once
+ * and, for every centroid, the other centroids are sorted by their distance to
+ * it. A row is first compared with a candidate centroid <code>b</code> (the
+ * winner of the previous row, since neighbouring rows tend to be close); every
+ * other centroid <code>j</code> satisfies
+ * <code>d(x, j) &gt;= d(b, j) - d(x, b)</code>, so the scan of the sorted
+ * neighbours of <code>b</code> stops as soon as
+ * <code>d(b, j) &gt;= 2 d(x, b)</code>. Whenever a closer centroid is found,
+ * the scan moves on to its neighbours (Orchard's method).
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+class PrunedNearestCentroidFinder extends NearestCentroidFinder implements FloatNearestCentroidSearch {
+
+	// relative slack on the pruning bound, guards against rounding errors
+	final static double BOUND_SLACK = 1e-12;
+
+	// the same for distances computed in single precision
+	final static double FLOAT_BOUND_SLACK = 1e-5;
+
+	/** for every centroid, the other centroids sorted by their distance to it */
+	private final int[] m_neighbours;
+
+	/** the distances matching m_neighbours */
+	private final double[] m_neighbourDistances;
+
+	/** the packed centroids in single precision, null unless requested */
+	private final float[] m_floatCentroids;
+
+	PrunedNearestCentroidFinder(double[] centroids, int numAttributes, DistanceKernel kernel) {
+		this(centroids, numAttributes, kernel, false);
+	}
+
+	/***
+	 * Builds the search, optionally over single precision rows as well
+	 * 
+	 * @param singlePrecision
+	 *            whether the single precision search will be used, which
+	 *            needs a single precision copy of the centroids
+	 */
+	PrunedNearestCentroidFinder(double[] centroids, int numAttributes, DistanceKernel kernel, boolean singlePrecision) {
+		super(centroids, numAttributes, kernel);
+		m_floatCentroids = singlePrecision ? toFloat(centroids) : null;
+		int numNeighbours = m_numCentroids - 1;
+		m_neighbours = new int[m_numCentroids * numNeighbours];
+		m_neighbourDistances = new double[m_numCentroids * numNeighbours];
+
+		final double[] distances = new double[m_numCentroids];
+		Integer[] sorted = new Integer[numNeighbours];
+		for (int c = 0; c < m_numCentroids; c++) {
+			for (int j = 0; j < m_numCentroids; j++) {
+				distances[j] = Math.sqrt(kernel.squaredDistance(centroids, c * numAttributes, centroids,
+						j * numAttributes, numAttributes, Double.POSITIVE_INFINITY));
+			}
+			for (int j = 0, n = 0; j < m_numCentroids; j++) {
+				if (j != c) {
+					sorted[n++] = j;
+				}
+			}
+			Arrays.sort(sorted, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(distances[a], distances[b]);
+				}
+			});
+			for (int n = 0; n < numNeighbours; n++) {
+				m_neighbours[c * numNeighbours + n] = sorted[n];
+				m_neighbourDistances[c * numNeighbours + n] = distances[sorted[n]];
+			}
+		}
+	}
+
+	@Override
+	void closest(double[] rows, int firstRow, int numRows, int[] closest, double[] squaredDistances) {
+		int numNeighbours = m_numCentroids - 1;
+		// the winner of the previous row, first candidate for the next one
+		int candidate = 0;
+		for (int r = 0; r < numRows; r++) {
+			int rowOffset = (firstRow + r) * m_numAttributes;
+			int best = candidate;
+			double min = m_kernel.squaredDistance(rows, rowOffset, m_centroids, best * m_numAttributes,
+					m_numAttributes, Double.POSITIVE_INFINITY);
+			double minDistance = Math.sqrt(min);
+
+			int n = best * numNeighbours;
+			int end = n + numNeighbours;
+			while (n < end) {
+				if (m_neighbourDistances[n] >= 2 * minDistance * (1 + BOUND_SLACK)) {
+					// this and all further neighbours are farther than the best one
+					break;
+				}
+				int j = m_neighbours[n];
+				double distance = m_kernel.squaredDistance(rows, rowOffset, m_centroids, j * m_numAttributes,
+						m_numAttributes, min);
+				if (distance < min) {
+					// continue with the neighbours of the new best centroid, whose bound is tighter
+					min = distance;
+					minDistance = Math.sqrt(distance);
+					best = j;
+					n = best * numNeighbours;
+					end = n + numNeighbours;
+				} else {
+					n++;
+				}
+			}
+
+			closest[r] = best;
+			squaredDistances[r] = min;
+			candidate = best;
+		}
+	}
+
+	@Override
+	public void closest(float[] rows, int firstRow, int numRows, int[] closest, double[] squaredDistances) {
+		int numNeighbours = m_numCentroids - 1;
+		// the winner of the previous row, first candidate for the next one
+		int candidate = 0;
+		for (int r = 0; r < numRows; r++) {
+			int rowOffset = (firstRow + r) * m_numAttributes;
+			int best = candidate;
+			double min = m_kernel.squaredDistance(rows, rowOffset, m_floatCentroids, best * m_numAttributes,
+					m_numAttributes, Double.POSITIVE_INFINITY);
+			double minDistance = Math.sqrt(min);
+
+			int n = best * numNeighbours;
+			int end = n + numNeighbours;
+			while (n < end) {
+				if (m_neighbourDistances[n] >= 2 * minDistance * (1 + FLOAT_BOUND_SLACK)) {
+					// this and all further neighbours are farther than the best one
+					break;
+				}
+				int j = m_neighbours[n];
+				double distance = m_kernel.squaredDistance(rows, rowOffset, m_floatCentroids, j * m_numAttributes,
+						m_numAttributes, min);
+				if (distance < min) {
+					// continue with the neighbours of the new best centroid, whose bound is tighter
+					min = distance;
+					minDistance = Math.sqrt(distance);
+					best = j;
+					n = best * numNeighbours;
+					end = n + numNeighbours;
+				} else {
+					n++;
+				}
+			}
+
+			closest[r] = best;
+			squaredDistances[r] = min;
+			candidate = best;
+		}
+	}
+}
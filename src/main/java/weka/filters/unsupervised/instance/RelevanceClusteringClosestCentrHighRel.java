@@ -3,21 +3,33 @@
  */
 package weka.filters.unsupervised.instance;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import weka.clusterers.AbstractClusterer;
+import weka.clusterers.Clusterer;
 import weka.clusterers.XMeans;
 import weka.core.Capabilities;
+import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Capabilities.Capability;
-import weka.filters.Filter;
 import weka.filters.SimpleBatchFilter;
-import weka.filters.unsupervised.attribute.Remove;
 import weka.core.Instances;
 import weka.core.Option;
+import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
 import weka.core.SelectedTag;
+import weka.core.SparseInstance;
 import weka.core.Tag;
 import weka.core.Utils;
 
@@ -61,6 +73,36 @@ public class RelevanceClusteringClosestCentrHighRel extends SimpleBatchFilter {
 		}
 	}
 
+	public static enum ClosestCentroidSearch {
+		LINEAR("Linear"), BLOCKED("Blocked"), PRUNED("Pruned"), KD_TREE("KDTree"), BALL_TREE("BallTree"), AUTO("Auto");
+
+		private final String m_stringVal;
+
+		ClosestCentroidSearch(String name) {
+			m_stringVal = name;
+		}
+
+		@Override
+		public String toString() {
+			return m_stringVal;
+		}
+	}
+
+	public static enum InputLayout {
+		INSTANCES("Instances"), ROW_MAJOR("RowMajor");
+
+		private final String m_stringVal;
+
+		InputLayout(String name) {
+			m_stringVal = name;
+		}
+
+		@Override
+		public String toString() {
+			return m_stringVal;
+		}
+	}
+
 	public static final Tag[] FUNCTION_MODIFIERS_SELECTION = { new Tag(RelevanceFunctionModifier.IDENTICAL.ordinal(), "Identical"),
 			new Tag(RelevanceFunctionModifier.LOG.ordinal(), "Logarithm"),
 			new Tag(RelevanceFunctionModifier.SIGMOID.ordinal(), "Sigmoid"),
@@ -71,11 +113,81 @@ public class RelevanceClusteringClosestCentrHighRel extends SimpleBatchFilter {
 			new Tag(ClosestCentroidImpact.ClosestCentroidLowRelevance.ordinal(), "LowRelevance"),
 			};
 
+	public static final Tag[] CLOSEST_CENTROID_SEARCH_SELECTION = {
+			new Tag(ClosestCentroidSearch.LINEAR.ordinal(), "Linear"),
+			new Tag(ClosestCentroidSearch.BLOCKED.ordinal(), "Blocked"),
+			new Tag(ClosestCentroidSearch.PRUNED.ordinal(), "Pruned"),
+			new Tag(ClosestCentroidSearch.KD_TREE.ordinal(), "KDTree"),
+			new Tag(ClosestCentroidSearch.BALL_TREE.ordinal(), "BallTree"),
+			new Tag(ClosestCentroidSearch.AUTO.ordinal(), "Auto"),
+			};
+
+	public static final Tag[] INPUT_LAYOUT_SELECTION = {
+			new Tag(InputLayout.INSTANCES.ordinal(), "Instances"),
+			new Tag(InputLayout.ROW_MAJOR.ordinal(), "RowMajor"),
+			};
+
 	// to avoid division by zero
 	final static double epsilon = 1e-3;
 
+	// name of the SIMD kernel, compiled from src/main/java-vector on JDK 16+
+	final static String VECTOR_DISTANCE_KERNEL = "weka.filters.unsupervised.instance.VectorDistanceKernel";
+
+	// SIMD kernel when the Vector API is available, scalar kernel otherwise
+	final static DistanceKernel DISTANCE_KERNEL = createDistanceKernel();
+
+	// number of instances whose closest centroids are searched for at once
+	final static int ROWS_PER_BATCH = 256;
+
+	// below this number of centroids, Auto scans them linearly
+	final static int AUTO_MIN_INDEXED_CENTROIDS = 64;
+
+	// from this number of centroids on, Auto uses a ball tree when a KD-tree does not pay off
+	final static int AUTO_MIN_BALL_TREE_CENTROIDS = 512;
+
+	// number of ranges of instances per execution slot, to even out the load
+	final static int TASKS_PER_SLOT = 4;
+
+	// centroids of the data sets clustered lately, shared by all the filters
+	final static CentroidCache CENTROID_CACHE = new CentroidCache();
+
 	protected RelevanceFunctionModifier m_relevanceFunctionModifier = RelevanceFunctionModifier.IDENTICAL;
 	protected ClosestCentroidImpact m_closestCentroidImpact = ClosestCentroidImpact.ClosestCentroidHighRelevance;
+	protected boolean m_orderAttributesByVariance = false;
+	protected ClosestCentroidSearch m_closestCentroidSearch = ClosestCentroidSearch.LINEAR;
+	protected int m_numExecutionSlots = 0;
+	protected int m_minNumClusters = 2;
+	protected int m_maxNumClusters = 1000;
+	protected int m_maxIterations = 1000;
+	protected double m_timeBudget = 0;
+	protected Clusterer m_clusterer = new XMeans();
+	protected int m_sampleSize = 0;
+	protected double m_samplePercent = 100;
+	protected boolean m_stratifySample = false;
+	protected int m_sampleSeed = 1;
+	protected boolean m_refit = false;
+	protected double m_cacheSize = 16;
+	protected File m_loadModel = new File(System.getProperty("user.dir"));
+	protected File m_saveModel = new File(System.getProperty("user.dir"));
+	protected InputLayout m_inputLayout = InputLayout.INSTANCES;
+	protected boolean m_singlePrecision = false;
+
+	// learned on the first batch, reused for the later ones
+	protected int[] m_attributeOrder;
+	protected double[] m_centroids;
+	protected NearestCentroidFinder m_finder;
+	protected FloatNearestCentroidSearch m_floatSearch;
+	protected SparseNearestCentroidSearch m_sparseSearch;
+	protected double m_relevanceShift;
+
+	// buffers of relevanceOf, allocated along with the model
+	private int[] m_columns;
+	private int[] m_positions;
+	private double[] m_row;
+	private float[] m_floatRow;
+	private double[] m_dots;
+	private int[] m_nearest;
+	private double[] m_squaredDistance;
 
 	/*
 	 * (non-Javadoc)
@@ -107,10 +219,72 @@ public class RelevanceClusteringClosestCentrHighRel extends SimpleBatchFilter {
 		ArrayList<String> options = new ArrayList<String>();
 
 		options.add("-F");
-		options.add(getRelevanceFunctionModifier().toString());
+		options.add(m_relevanceFunctionModifier.toString());
 		
 		options.add("-C");
-		options.add(getClosestCentroidImpact().toString());
+		options.add(m_closestCentroidImpact.toString());
+
+		if (getOrderAttributesByVariance()) {
+			options.add("-V");
+		}
+
+		options.add("-S");
+		options.add(m_closestCentroidSearch.toString());
+
+		options.add("-num-slots");
+		options.add("" + getNumExecutionSlots());
+
+		options.add("-L");
+		options.add("" + getMinNumClusters());
+
+		options.add("-H");
+		options.add("" + getMaxNumClusters());
+
+		options.add("-I");
+		options.add("" + getMaxIterations());
+
+		options.add("-T");
+		options.add("" + getTimeBudget());
+
+		options.add("-clusterer");
+		options.add(getClustererSpec());
+
+		options.add("-sample-size");
+		options.add("" + getSampleSize());
+
+		options.add("-sample-percent");
+		options.add("" + getSamplePercent());
+
+		if (getStratifySample()) {
+			options.add("-stratify");
+		}
+
+		options.add("-sample-seed");
+		options.add("" + getSampleSeed());
+
+		if (getRefit()) {
+			options.add("-refit");
+		}
+
+		options.add("-cache-size");
+		options.add("" + getCacheSize());
+
+		if (!getLoadModel().isDirectory()) {
+			options.add("-load-model");
+			options.add(getLoadModel().getPath());
+		}
+
+		if (!getSaveModel().isDirectory()) {
+			options.add("-save-model");
+			options.add(getSaveModel().getPath());
+		}
+
+		options.add("-layout");
+		options.add(m_inputLayout.toString());
+
+		if (getSinglePrecision()) {
+			options.add("-single-precision");
+		}
 
 		return options.toArray(new String[1]);
 	}
@@ -134,6 +308,128 @@ public class RelevanceClusteringClosestCentrHighRel extends SimpleBatchFilter {
 	 *  (default: HighRelevance).
 	 * </pre>
 	 * 
+	 * <pre>
+	 * -V
+	 *  Scan the attributes in decreasing order of the centroid variance
+	 *  when searching for the closest centroid.
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -S &lt;Linear | Blocked | Pruned | KDTree | BallTree | Auto&gt;
+	 *  How the closest centroid is searched for; Blocked computes the
+	 *  distances in matrix form, which pays off for many centroids;
+	 *  Pruned skips centroids through the triangle inequality; KDTree and
+	 *  BallTree index the centroids; Auto picks a linear scan or an index
+	 *  from the number of centroids and attributes.
+	 *  (default: Linear).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -num-slots &lt;num&gt;
+	 *  Number of threads computing the relevances, 0 for one per
+	 *  available processor.
+	 *  (default: 0).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -L &lt;num&gt;
+	 *  Minimum number of clusters built by XMeans.
+	 *  (default: 2).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -H &lt;num&gt;
+	 *  Maximum number of clusters built by XMeans.
+	 *  (default: 1000).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -I &lt;num&gt;
+	 *  Maximum number of XMeans iterations.
+	 *  (default: 1000).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -T &lt;seconds&gt;
+	 *  Wall-clock time budget of the clustering; once spent, XMeans stops
+	 *  splitting clusters and keeps the model found so far. 0 for none.
+	 *  (default: 0).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -clusterer &lt;clusterer specification&gt;
+	 *  Full class name of the clusterer computing the centroids, followed
+	 *  by its options; XMeans, SimpleKMeans, FarthestFirst, Canopy and
+	 *  MiniBatchKMeans are supported. -L, -H, -I and -T apply to XMeans only and take
+	 *  precedence over its own settings.
+	 *  (default: weka.clusterers.XMeans).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -sample-size &lt;num&gt;
+	 *  Maximum number of instances the clustering runs on; all the
+	 *  instances are scored against the resulting centroids. 0 for no
+	 *  limit.
+	 *  (default: 0).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -sample-percent &lt;num&gt;
+	 *  Percentage of the instances the clustering runs on.
+	 *  (default: 100).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -stratify
+	 *  Sample each class value in proportion to its frequency.
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -sample-seed &lt;num&gt;
+	 *  Random number seed of the sampling.
+	 *  (default: 1).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -refit
+	 *  Cluster every batch, instead of reusing the centroids learned
+	 *  on the first one.
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -cache-size &lt;num&gt;
+	 *  Memory budget in megabytes of the centroids cached across
+	 *  filters, keyed by the clustered data and the clustering
+	 *  settings. The centroids this filter caches are evicted once
+	 *  the whole cache exceeds it. 0 disables the cache.
+	 *  (default: 16).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -load-model &lt;file&gt;
+	 *  Centroid model file to apply instead of clustering.
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -save-model &lt;file&gt;
+	 *  File the centroid model learned on the first batch is saved to.
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -layout &lt;Instances | RowMajor&gt;
+	 *  How the instances are read by the closest centroid search:
+	 *  straight from the instances, in batches, or from a snapshot of
+	 *  all of them packed row by row.
+	 *  (default: Instances).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -single-precision
+	 *  Search the closest centroids in single precision; the relevances
+	 *  are still computed in double precision. Linear and Pruned search
+	 *  only.
+	 * </pre>
+	 * 
 	 * <!-- options-end -->
 	 * 
 	 * @param options
@@ -176,6 +472,109 @@ public class RelevanceClusteringClosestCentrHighRel extends SimpleBatchFilter {
 			}
 		}
 
+		setOrderAttributesByVariance(Utils.getFlag('V', options));
+
+		String closestCentroidSearch = Utils.getOption('S', options);
+		if (closestCentroidSearch.length() != 0) {
+
+			ClosestCentroidSearch selected = null;
+			for (ClosestCentroidSearch n : ClosestCentroidSearch.values()) {
+				if (n.toString().equalsIgnoreCase(closestCentroidSearch)) {
+					selected = n;
+				}
+			}
+			if (selected == null) {
+				throw new Exception("Unknown search type: " + closestCentroidSearch);
+			} else {
+				setClosestCentroidSearch(new SelectedTag(selected.ordinal(), CLOSEST_CENTROID_SEARCH_SELECTION));
+			}
+		}
+
+		String numSlots = Utils.getOption("num-slots", options);
+		if (numSlots.length() != 0) {
+			setNumExecutionSlots(Integer.parseInt(numSlots));
+		}
+
+		String minNumClusters = Utils.getOption('L', options);
+		if (minNumClusters.length() != 0) {
+			setMinNumClusters(Integer.parseInt(minNumClusters));
+		}
+
+		String maxNumClusters = Utils.getOption('H', options);
+		if (maxNumClusters.length() != 0) {
+			setMaxNumClusters(Integer.parseInt(maxNumClusters));
+		}
+
+		String maxIterations = Utils.getOption('I', options);
+		if (maxIterations.length() != 0) {
+			setMaxIterations(Integer.parseInt(maxIterations));
+		}
+
+		String timeBudget = Utils.getOption('T', options);
+		if (timeBudget.length() != 0) {
+			setTimeBudget(Double.parseDouble(timeBudget));
+		}
+
+		String clustererSpec = Utils.getOption("clusterer", options);
+		if (clustererSpec.length() != 0) {
+			String[] clustererOptions = Utils.splitOptions(clustererSpec);
+			String clustererName = clustererOptions[0];
+			clustererOptions[0] = "";
+			Clusterer clusterer = AbstractClusterer.forName(clustererName, clustererOptions);
+			if (CentroidExtractors.forClusterer(clusterer) == null) {
+				throw new Exception("The cluster centers of " + clustererName + " cannot be extracted");
+			}
+			setClusterer(clusterer);
+		}
+
+		String sampleSize = Utils.getOption("sample-size", options);
+		if (sampleSize.length() != 0) {
+			setSampleSize(Integer.parseInt(sampleSize));
+		}
+
+		String samplePercent = Utils.getOption("sample-percent", options);
+		if (samplePercent.length() != 0) {
+			setSamplePercent(Double.parseDouble(samplePercent));
+		}
+
+		setStratifySample(Utils.getFlag("stratify", options));
+
+		String sampleSeed = Utils.getOption("sample-seed", options);
+		if (sampleSeed.length() != 0) {
+			setSampleSeed(Integer.parseInt(sampleSeed));
+		}
+
+		setRefit(Utils.getFlag("refit", options));
+
+		String cacheSize = Utils.getOption("cache-size", options);
+		if (cacheSize.length() != 0) {
+			setCacheSize(Double.parseDouble(cacheSize));
+		}
+
+		String loadModel = Utils.getOption("load-model", options);
+		setLoadModel(new File(loadModel.length() != 0 ? loadModel : System.getProperty("user.dir")));
+
+		String saveModel = Utils.getOption("save-model", options);
+		setSaveModel(new File(saveModel.length() != 0 ? saveModel : System.getProperty("user.dir")));
+
+		String inputLayout = Utils.getOption("layout", options);
+		if (inputLayout.length() != 0) {
+
+			InputLayout selected = null;
+			for (InputLayout n : InputLayout.values()) {
+				if (n.toString().equalsIgnoreCase(inputLayout)) {
+					selected = n;
+				}
+			}
+			if (selected == null) {
+				throw new Exception("Unknown input layout: " + inputLayout);
+			} else {
+				setInputLayout(new SelectedTag(selected.ordinal(), INPUT_LAYOUT_SELECTION));
+			}
+		}
+
+		setSinglePrecision(Utils.getFlag("single-precision", options));
+
 		Utils.checkForRemainingOptions(options);
 	}
 
@@ -239,212 +638,1386 @@ public class RelevanceClusteringClosestCentrHighRel extends SimpleBatchFilter {
 		return "How the distance to the closest centroid contributes to the relevance computation";
 	}
 
-	/**
-	 * Returns an enumeration describing the available options.
-	 * 
-	 * @return an enumeration of all the available options.
-	 */
-	@Override
-	public Enumeration<Option> listOptions() {
-		Vector<Option> newVector = new Vector<Option>();
-
-		newVector.add(new Option("\tFunction modifier." + "\n\t(default: Identical).", "F", 1,
-				"-F <Identical | Logarithm | Sigmoid | Exp>"));
-		
-		newVector.add(new Option("\tClosest centroid impact." + "\n\t(default: HighRelevance).", "C", 1,
-				"-F <HighRelevance | LowRelevance>"));
-
-		return newVector.elements();
+	public void setOrderAttributesByVariance(boolean orderAttributesByVariance) {
+		m_orderAttributesByVariance = orderAttributesByVariance;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see weka.filters.SimpleFilter#process(weka.core.Instances)
-	 */
-	@Override
-	protected Instances process(Instances instances) throws Exception {
+	public boolean getOrderAttributesByVariance() {
+		return m_orderAttributesByVariance;
+	}
 
-		if (instances.numInstances() == 1) {
-			return instances;// nothing to cluster
-		} else {
-			// cluster through xmeans and get the centroids
+	public String orderAttributesByVarianceTipText() {
+		return "Scan the attributes in decreasing order of the centroid variance, so that the search for "
+				+ "the closest centroid can discard candidates earlier";
+	}
 
-			Instances trainWOClasses = removeClass(instances);
-			// cluster
-			Instances centers = getCentroids(trainWOClasses);
-			
-			double minRelevance = Double.POSITIVE_INFINITY;
+	public void setClosestCentroidSearch(SelectedTag tag) {
+		int ordinal = tag.getSelectedTag().getID();
 
-			for (int i = 0; i < instances.numInstances(); i++) {
-				double[] distances = computeDistances(trainWOClasses.get(i), centers);
-				double minDistance = getMin(distances);
-				double relevance = computeRelevance(minDistance);
-				relevance = applyFunction(relevance);
-				if (relevance < 0)
-				{
-					minRelevance = Math.min(minRelevance, relevance);
-				}
-				instances.get(i).setWeight(relevance);
-			}
-			
-			if (minRelevance <= 0)
-			{
-				System.err.println("minRelevance= " + minRelevance);
-				//we shift all relevances above 1.0
-				for (int i = 0; i < instances.numInstances(); i++) {
-					instances.get(i).setWeight(instances.get(i).weight() - minRelevance + 1.0);
-				}
+		for (ClosestCentroidSearch n : ClosestCentroidSearch.values()) {
+			if (n.ordinal() == ordinal) {
+				m_closestCentroidSearch = n;
+				break;
 			}
 		}
+	}
 
-		return instances;
+	public SelectedTag getClosestCentroidSearch() {
+		return new SelectedTag(m_closestCentroidSearch.ordinal(), CLOSEST_CENTROID_SEARCH_SELECTION);
 	}
 
-	private double computeRelevance(double minDistance) throws Exception {
-		if (m_closestCentroidImpact == ClosestCentroidImpact.ClosestCentroidHighRelevance)
-		{
-			return 1.0 / (epsilon + minDistance);
-		}
-		if (m_closestCentroidImpact == ClosestCentroidImpact.ClosestCentroidLowRelevance)
-		{
-			return minDistance;
-		} 
-		throw new Exception("Unknown strategy: " + m_closestCentroidImpact.toString());
+	public String closestCentroidSearchTipText() {
+		return "How the closest centroid is searched for: Linear compares each instance with every centroid, "
+				+ "Blocked computes the distances in matrix form, in cache sized blocks, "
+				+ "Pruned uses the centroid to centroid distances to skip the centroids which cannot be the closest, "
+				+ "KDTree and BallTree index the centroids, Auto picks a linear scan, a KD-tree or a ball tree "
+				+ "from the number of centroids and attributes";
 	}
 
-	private double applyFunction(double relevance) throws Exception {
-		if (m_relevanceFunctionModifier == RelevanceFunctionModifier.IDENTICAL)
-		{
-			return relevance;
-		}
-		if (m_relevanceFunctionModifier == RelevanceFunctionModifier.EXP)
-		{
-			return Math.exp(relevance);
-		}
-		if (m_relevanceFunctionModifier == RelevanceFunctionModifier.LOG)
-		{
-			return Math.log(relevance);
-		}
-		if (m_relevanceFunctionModifier == RelevanceFunctionModifier.SIGMOID)
-		{
-			return sigmoid(relevance);
-		}
-		throw new Exception("Unknown relevance function modifier: " + m_relevanceFunctionModifier.toString());
+	public void setNumExecutionSlots(int numExecutionSlots) {
+		m_numExecutionSlots = numExecutionSlots;
 	}
 
-	private static double sigmoid(double relevance) {
-		return 1.0 / (1 + Math.exp(-relevance));
+	public int getNumExecutionSlots() {
+		return m_numExecutionSlots;
 	}
 
-	/**
-	 * The current relevances are changed to be at least 1
-	 * 
-	 * @param instances
-	 *            the set of instance whose weights (relevances) are to be
-	 *            updated
-	 */
-	private void changeRelevancesToMin1(Instances instances) {
-		double minWeight = Double.POSITIVE_INFINITY;
-		for (Instance instance : instances) {
-			minWeight = Math.min(minWeight, instance.weight());
-		}
-		for (Instance instance : instances) {
-			instance.setWeight(instance.weight() / (epsilon + minWeight));
-		}
+	public String numExecutionSlotsTipText() {
+		return "The number of threads computing the relevances; 0 uses one per available processor, 1 computes them "
+				+ "sequentially";
 	}
 
-	/***
-	 * Return the minimum value form a vector
-	 * 
-	 * @param values
-	 *            a vector of double values
-	 * @return the minimum value within the vector
-	 */
-	private static double getMin(final double[] values) {
-		double min = values[0];
-		for (int i = 1; i < values.length; i++) {
-			min = Math.min(min, values[i]);
-		}
-		return min;
+	public void setMinNumClusters(int minNumClusters) {
+		m_minNumClusters = minNumClusters;
 	}
 
-	/***
-	 * Computes the distance between an instance an the cluster centroids
-	 * 
-	 * @param instance
-	 *            the data row (class missing) for which the distance to
-	 *            centroids must be computed
-	 * @param centroids
-	 *            the centroids as computed in the clustering step
-	 * @return a vector of double value containing the distances from instance
-	 *         to all centroids
-	 */
-	private static double[] computeDistances(Instance instance, Instances centroids) {
-		double[] distances = new double[centroids.numInstances()];
+	public int getMinNumClusters() {
+		return m_minNumClusters;
+	}
 
-		for (int i = 0; i < centroids.numInstances(); i++) {
-			Instance centroid = centroids.get(i);
-			distances[i] = computeDistance(instance, centroid);
-		}
+	public String minNumClustersTipText() {
+		return "The minimum number of clusters built by XMeans";
+	}
 
-		return distances;
+	public void setMaxNumClusters(int maxNumClusters) {
+		m_maxNumClusters = maxNumClusters;
 	}
 
-	/***
-	 * Computes the distance between an instance and a centroid
-	 * 
-	 * @param instance
-	 *            a data row (class ommited) for which the distance to the given
-	 *            centroid must be computed
-	 * @param centroid
-	 *            a cluster centroid
-	 * @return a double value
+	public int getMaxNumClusters() {
+		return m_maxNumClusters;
+	}
+
+	public String maxNumClustersTipText() {
+		return "The maximum number of clusters built by XMeans";
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		m_maxIterations = maxIterations;
+	}
+
+	public int getMaxIterations() {
+		return m_maxIterations;
+	}
+
+	public String maxIterationsTipText() {
+		return "The maximum number of XMeans iterations";
+	}
+
+	public void setTimeBudget(double timeBudget) {
+		m_timeBudget = timeBudget;
+	}
+
+	public double getTimeBudget() {
+		return m_timeBudget;
+	}
+
+	public String timeBudgetTipText() {
+		return "The wall-clock time budget of the clustering, in seconds; once spent, XMeans stops splitting "
+				+ "clusters and the model found so far is used. 0 means no budget";
+	}
+
+	public void setClusterer(Clusterer clusterer) {
+		m_clusterer = clusterer;
+	}
+
+	public Clusterer getClusterer() {
+		return m_clusterer;
+	}
+
+	public String clustererTipText() {
+		return "The clusterer computing the centroids: XMeans, SimpleKMeans, FarthestFirst, Canopy or MiniBatchKMeans. "
+				+ "The minimum and maximum number of clusters, the maximum number of iterations and the time "
+				+ "budget of this filter apply to XMeans only";
+	}
+
+	public void setSampleSize(int sampleSize) {
+		m_sampleSize = sampleSize;
+	}
+
+	public int getSampleSize() {
+		return m_sampleSize;
+	}
+
+	public String sampleSizeTipText() {
+		return "The maximum number of instances the clustering runs on, 0 for no limit; the relevance is "
+				+ "still computed for all the instances";
+	}
+
+	public void setSamplePercent(double samplePercent) {
+		m_samplePercent = samplePercent;
+	}
+
+	public double getSamplePercent() {
+		return m_samplePercent;
+	}
+
+	public String samplePercentTipText() {
+		return "The percentage of the instances the clustering runs on";
+	}
+
+	public void setStratifySample(boolean stratifySample) {
+		m_stratifySample = stratifySample;
+	}
+
+	public boolean getStratifySample() {
+		return m_stratifySample;
+	}
+
+	public String stratifySampleTipText() {
+		return "Sample each value of a nominal class in proportion to its frequency";
+	}
+
+	public void setSampleSeed(int sampleSeed) {
+		m_sampleSeed = sampleSeed;
+	}
+
+	public int getSampleSeed() {
+		return m_sampleSeed;
+	}
+
+	public String sampleSeedTipText() {
+		return "The random number seed of the sampling";
+	}
+
+	public void setRefit(boolean refit) {
+		m_refit = refit;
+	}
+
+	public boolean getRefit() {
+		return m_refit;
+	}
+
+	public String refitTipText() {
+		return "Cluster every batch; otherwise the centroids and the relevance shift learned on the first batch "
+				+ "are reused for the later ones, e.g. for the test data of a FilteredClassifier";
+	}
+
+	public void setCacheSize(double cacheSize) {
+		m_cacheSize = cacheSize;
+	}
+
+	public double getCacheSize() {
+		return m_cacheSize;
+	}
+
+	public String cacheSizeTipText() {
+		return "The memory budget in megabytes of the centroids cached across filters, so that clustering the "
+				+ "same data with the same settings again (e.g. in repeated cross-validation) is skipped; the "
+				+ "centroids this filter caches are evicted once the whole cache exceeds it; 0 disables the cache";
+	}
+
+	public void setLoadModel(File loadModel) {
+		m_loadModel = loadModel;
+	}
+
+	public File getLoadModel() {
+		return m_loadModel;
+	}
+
+	public String loadModelTipText() {
+		return "A centroid model file saved by this filter; when set, the model is applied and no clustering is "
+				+ "done. The closest centroid impact and the relevance function modifier must be the ones the model "
+				+ "was saved with. A directory means none";
+	}
+
+	public void setSaveModel(File saveModel) {
+		m_saveModel = saveModel;
+	}
+
+	public File getSaveModel() {
+		return m_saveModel;
+	}
+
+	public void setInputLayout(SelectedTag tag) {
+		int ordinal = tag.getSelectedTag().getID();
+
+		for (InputLayout n : InputLayout.values()) {
+			if (n.ordinal() == ordinal) {
+				m_inputLayout = n;
+				break;
+			}
+		}
+	}
+
+	public SelectedTag getInputLayout() {
+		return new SelectedTag(m_inputLayout.ordinal(), INPUT_LAYOUT_SELECTION);
+	}
+
+	public String inputLayoutTipText() {
+		return "How the closest centroid search reads the instances: Instances copies them batch by batch, "
+				+ "RowMajor first packs all of them row by row into one snapshot array, searched in place, which "
+				+ "costs the memory of a dense copy of the data";
+	}
+
+	public void setSinglePrecision(boolean singlePrecision) {
+		m_singlePrecision = singlePrecision;
+	}
+
+	public boolean getSinglePrecision() {
+		return m_singlePrecision;
+	}
+
+	public String singlePrecisionTipText() {
+		return "Store the instances and the centroids searched over in single precision, halving the memory "
+				+ "traffic of the closest centroid search; the relevances and the weights stay in double "
+				+ "precision. Only the Linear and Pruned searches support it";
+	}
+
+	public String saveModelTipText() {
+		return "The file the centroid model learned on the first batch is saved to, to be applied later with "
+				+ "loadModel. A directory means none";
+	}
+
+	/***
+	 * Gets the clusterer and its options as a single string
+	 * 
+	 * @return the clusterer specification
+	 */
+	protected String getClustererSpec() {
+		String spec = m_clusterer.getClass().getName();
+		if (m_clusterer instanceof OptionHandler) {
+			spec += " " + Utils.joinOptions(((OptionHandler) m_clusterer).getOptions());
+		}
+		return spec.trim();
+	}
+
+	/**
+	 * Returns an enumeration describing the available options.
+	 * 
+	 * @return an enumeration of all the available options.
+	 */
+	@Override
+	public Enumeration<Option> listOptions() {
+		Vector<Option> newVector = new Vector<Option>();
+
+		newVector.add(new Option("\tFunction modifier." + "\n\t(default: Identical).", "F", 1,
+				"-F <Identical | Logarithm | Sigmoid | Exp>"));
+		
+		newVector.add(new Option("\tClosest centroid impact." + "\n\t(default: HighRelevance).", "C", 1,
+				"-F <HighRelevance | LowRelevance>"));
+
+		newVector.add(new Option("\tOrder attributes by decreasing centroid variance" + "\n\twhen searching for the closest centroid.", "V", 0,
+				"-V"));
+
+		newVector.add(new Option("\tClosest centroid search." + "\n\t(default: Linear).", "S", 1,
+				"-S <Linear | Blocked | Pruned | KDTree | BallTree | Auto>"));
+
+		newVector.add(new Option("\tNumber of execution slots, 0 for one per available processor." + "\n\t(default: 0).",
+				"num-slots", 1, "-num-slots <num>"));
+
+		newVector.add(new Option("\tMinimum number of clusters." + "\n\t(default: 2).", "L", 1, "-L <num>"));
+
+		newVector.add(new Option("\tMaximum number of clusters." + "\n\t(default: 1000).", "H", 1, "-H <num>"));
+
+		newVector.add(new Option("\tMaximum number of XMeans iterations." + "\n\t(default: 1000).", "I", 1,
+				"-I <num>"));
+
+		newVector.add(new Option("\tTime budget of the clustering in seconds, 0 for none." + "\n\t(default: 0).", "T",
+				1, "-T <seconds>"));
+
+		newVector.add(new Option("\tClusterer computing the centroids, with its options." + "\n\t(default: weka.clusterers.XMeans).",
+				"clusterer", 1, "-clusterer <clusterer specification>"));
+
+		newVector.add(new Option("\tMaximum number of instances to cluster, 0 for no limit." + "\n\t(default: 0).",
+				"sample-size", 1, "-sample-size <num>"));
+
+		newVector.add(new Option("\tPercentage of the instances to cluster." + "\n\t(default: 100).",
+				"sample-percent", 1, "-sample-percent <num>"));
+
+		newVector.add(new Option("\tStratify the sample by class.", "stratify", 0, "-stratify"));
+
+		newVector.add(new Option("\tRandom number seed of the sampling." + "\n\t(default: 1).", "sample-seed", 1,
+				"-sample-seed <num>"));
+
+		newVector.add(new Option("\tCluster every batch, instead of reusing the centroids" + "\n\tlearned on the first one.",
+				"refit", 0, "-refit"));
+
+		newVector.add(new Option("\tMemory budget in megabytes of the cached centroids, 0 to disable." + "\n\t(default: 16).",
+				"cache-size", 1, "-cache-size <num>"));
+
+		newVector.add(new Option("\tCentroid model file to apply instead of clustering.", "load-model", 1,
+				"-load-model <file>"));
+
+		newVector.add(new Option("\tFile the centroid model learned on the first batch is saved to.", "save-model", 1,
+				"-save-model <file>"));
+
+		newVector.add(new Option("\tHow the closest centroid search reads the instances." + "\n\t(default: Instances).",
+				"layout", 1, "-layout <Instances | RowMajor>"));
+
+		newVector.add(new Option("\tSearch the closest centroids in single precision.", "single-precision", 0,
+				"-single-precision"));
+
+		return newVector.elements();
+	}
+
+	/**
+	 * Input an instance for filtering. After the first batch, SimpleBatchFilter
+	 * processes every instance on its own; with -refit the later batches are
+	 * buffered instead, so that they are clustered as a whole when the batch
+	 * is finished.
+	 *
+	 * @param instance
+	 *            the input instance
+	 * @return true if the filtered instance may now be collected with
+	 *         output().
+	 * @throws Exception
+	 *             if the input format has not been defined
+	 */
+	@Override
+	public boolean input(Instance instance) throws Exception {
+		if (!m_refit || !isFirstBatchDone()) {
+			return super.input(instance);
+		}
+		if (getInputFormat() == null) {
+			throw new IllegalStateException("No input instance format defined");
+		}
+		if (m_NewBatch) {
+			resetQueue();
+			m_NewBatch = false;
+		}
+		bufferInput(instance);
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see weka.filters.SimpleFilter#process(weka.core.Instances)
+	 */
+	@Override
+	protected Instances process(Instances instances) throws Exception {
+
+		if (!isFirstBatchDone() || m_refit) {
+			resetModel();
+		}
+
+		if (m_centroids == null && !m_loadModel.isDirectory()) {
+			// a saved model stands for the first batch
+			loadModel(instances);
+		}
+
+		if (m_centroids != null) {
+			// later batch: only the nearest centroid search, shifted as the first batch was
+			double[] relevances = new double[instances.numInstances()];
+			computeRelevances(instances, m_attributeOrder, relevances);
+			setRelevances(instances, relevances, m_relevanceShift);
+		} else if (instances.numInstances() == 1) {
+			return instances;// nothing to cluster
+		} else {
+			fit(instances);
+			
+			double[] relevances = new double[instances.numInstances()];
+			double minRelevance = computeRelevances(instances, m_attributeOrder, relevances);
+			
+			if (minRelevance <= 0)
+			{
+				System.err.println("minRelevance= " + minRelevance);
+				//we shift all relevances above 1.0
+				m_relevanceShift = -minRelevance + 1.0;
+			}
+			setRelevances(instances, relevances, m_relevanceShift);
+
+			if (!m_saveModel.isDirectory()) {
+				saveModel(instances);
+			}
+		}
+
+		return instances;
+	}
+
+	/***
+	 * Clusters the instances and keeps the centroids for the closest centroid
+	 * search; the relevance shift is left to the caller.
+	 * 
+	 * @param instances
+	 *            the instances to be clustered, in the input format
+	 * @throws Exception
+	 *             if the instances cannot be clustered
+	 */
+	protected void fit(Instances instances) throws Exception {
+		// only the clustered instances are copied, class removed, on a sample if one is requested
+		Instances trainWOClasses = removeClass(instances, sample(instances));
+		if (getDebug()) {
+			// stderr, so that the filtered data written to stdout stays valid
+			if (instances.classIndex() >= 0) {
+				System.err.println("class index removed: " + (1 + instances.classIndex()));
+			}
+			System.err.println("Instances clustered: " + trainWOClasses.numInstances());
+		}
+		Instances centers = getCentroids(trainWOClasses);
+		trainWOClasses = null;
+		// pack the centroids once, so that the scan runs over primitive arrays
+		m_attributeOrder = m_orderAttributesByVariance ? orderByVariance(centers) : naturalOrder(centers);
+		m_centroids = packCentroids(centers, m_attributeOrder);
+		createSearch();
+	}
+
+	/***
+	 * Writes the centroids and the relevance shift to the model file.
+	 * 
+	 * @param instances
+	 *            instances in the input format, for the attribute names
+	 * @throws Exception
+	 *             if the model cannot be written
+	 */
+	protected void saveModel(Instances instances) throws Exception {
+		new CentroidModel(CentroidModel.attributeNames(instances), CentroidModel.attributeTypes(instances),
+				m_attributeOrder, m_centroids, m_closestCentroidImpact, m_relevanceFunctionModifier, m_relevanceShift)
+				.save(m_saveModel);
+	}
+
+	/***
+	 * Forgets the centroids and the relevance shift learned so far.
+	 */
+	protected void resetModel() {
+		m_centroids = null;
+		m_attributeOrder = null;
+		m_finder = null;
+		m_floatSearch = null;
+		m_sparseSearch = null;
+		m_relevanceShift = 0;
+		m_columns = null;
+	}
+
+	/***
+	 * Computes the relevance of a single instance against the centroids
+	 * learned so far, before the relevance shift. The buffers are reused from
+	 * one call to the next, so that streaming instances through the filter
+	 * allocates nothing; not to be called concurrently.
+	 * 
+	 * @param instance
+	 *            an instance in the input format
+	 * @return the relevance of the instance
+	 * @throws Exception
+	 *             if a relevance cannot be computed
+	 */
+	protected double relevanceOf(Instance instance) throws Exception {
+		if (m_columns == null) {
+			int numAttributes = m_attributeOrder.length;
+			m_columns = skipClass(m_attributeOrder, getInputFormat().classIndex());
+			m_positions = scanPositions(m_columns, getInputFormat().numAttributes());
+			m_row = new double[numAttributes];
+			m_floatRow = new float[numAttributes];
+			m_dots = new double[m_centroids.length / numAttributes];
+			m_nearest = new int[1];
+			m_squaredDistance = new double[1];
+		}
+
+		if (instance instanceof SparseInstance) {
+			sparseSearch().closest(instance, m_positions, m_dots, m_nearest, m_squaredDistance, 0);
+		} else if (m_singlePrecision) {
+			fillRow(instance, m_columns, m_floatRow, 0);
+			m_floatSearch.closest(m_floatRow, 0, 1, m_nearest, m_squaredDistance);
+		} else {
+			fillRow(instance, m_columns, m_row, 0);
+			m_finder.closest(m_row, 0, 1, m_nearest, m_squaredDistance);
+		}
+		return applyFunction(m_relevanceFunctionModifier,
+				computeRelevance(m_closestCentroidImpact, Math.sqrt(m_squaredDistance[0])));
+	}
+
+	/***
+	 * Takes a snapshot of the fitted model, for scoring single instances
+	 * outside of the filter. The scorer is not affected by later fits or
+	 * updates of the filter.
+	 * 
+	 * @return the scorer
+	 * @throws Exception
+	 *             if the filter has not been fitted or given a model yet
 	 */
-	private static double computeDistance(Instance instance, Instance centroid) {
-		double sum = 0.0;
-		for (int i = 0; i < instance.numAttributes(); i++) {
-			sum += Math.pow(instance.value(i) - centroid.value(i), 2);
+	public RelevanceScorer createScorer() throws Exception {
+		if (m_centroids == null) {
+			throw new Exception("The filter has not been fitted yet");
+		}
+		// the blocked and tree searches allocate on each call, the linear and pruned ones do not
+		int numAttributes = m_attributeOrder.length;
+		NearestCentroidFinder finder;
+		FloatNearestCentroidSearch floatSearch;
+		if (m_centroids.length / numAttributes < AUTO_MIN_INDEXED_CENTROIDS) {
+			LinearNearestCentroidFinder linear = new LinearNearestCentroidFinder(m_centroids, numAttributes,
+					DISTANCE_KERNEL, m_singlePrecision);
+			finder = linear;
+			floatSearch = linear;
+		} else {
+			PrunedNearestCentroidFinder pruned = new PrunedNearestCentroidFinder(m_centroids, numAttributes,
+					DISTANCE_KERNEL, m_singlePrecision);
+			finder = pruned;
+			floatSearch = pruned;
+		}
+		if (m_singlePrecision) {
+			finder = null;
+		} else {
+			floatSearch = null;
 		}
-		return Math.sqrt(sum);
+		return new RelevanceScorer(m_centroids, m_attributeOrder, getInputFormat().numAttributes(),
+				getInputFormat().classIndex(), finder, floatSearch, m_closestCentroidImpact,
+				m_relevanceFunctionModifier, m_relevanceShift);
+	}
+
+	/***
+	 * Gets the centroid found closest by the last call to relevanceOf.
+	 * 
+	 * @return the index of the centroid in the packed centroids
+	 */
+	protected int closestCentroid() {
+		return m_nearest[0];
+	}
+
+	/***
+	 * Copies the values of an instance in the order the attributes are
+	 * scanned, class excluded; to be called after relevanceOf.
+	 * 
+	 * @param instance
+	 *            an instance in the input format
+	 * @param row
+	 *            receives the values
+	 */
+	protected void scanRow(Instance instance, double[] row) {
+		fillRow(instance, m_columns, row, 0);
 	}
 
 	/***
-	 * Applies a clustering algorithm for a data set
+	 * Replaces the centroids, for instance once they have been updated, and
+	 * builds the closest centroid search again. The attribute order and the
+	 * relevance shift are kept.
+	 * 
+	 * @param centroids
+	 *            the new centroids, packed row by row in scan order; not to
+	 *            be modified afterwards
+	 * @throws Exception
+	 *             if the search cannot be built
+	 */
+	protected void setCentroids(double[] centroids) throws Exception {
+		m_centroids = centroids;
+		createSearch();
+		m_sparseSearch = null;
+		m_columns = null;
+	}
+
+	/***
+	 * Applies the saved centroid model instead of clustering.
+	 * 
+	 * @param instances
+	 *            the instances the model is applied on
+	 * @throws Exception
+	 *             if the model cannot be read or does not fit the instances
+	 */
+	protected void loadModel(Instances instances) throws Exception {
+		CentroidModel model = CentroidModel.load(m_loadModel);
+		model.checkLayout(instances);
+		model.checkSettings(m_closestCentroidImpact, m_relevanceFunctionModifier);
+		m_attributeOrder = model.m_attributeOrder;
+		m_centroids = model.m_centroids;
+		createSearch();
+		m_relevanceShift = model.m_relevanceShift;
+	}
+
+	/***
+	 * Sets the shifted relevances as the weights of the instances, writing
+	 * each weight once.
+	 * 
+	 * @param instances
+	 *            the instances whose weights are set
+	 * @param relevances
+	 *            the relevance of each instance
+	 * @param shift
+	 *            the amount added to every relevance
+	 */
+	private static void setRelevances(Instances instances, double[] relevances, double shift) {
+		for (int i = 0; i < relevances.length; i++) {
+			instances.get(i).setWeight(relevances[i] + shift);
+		}
+	}
+
+	/***
+	 * Computes the relevance of every instance. The instances are split into
+	 * ranges which are processed in parallel, each range reporting its own
+	 * minimum.
+	 * 
+	 * @param instances
+	 *            the instances whose relevances are computed
+	 * @param attributeOrder
+	 *            the order in which the attributes are scanned, class
+	 *            excluded
+	 * @param relevances
+	 *            receives the relevance of each instance
+	 * @return the minimum of the negative relevances, or positive infinity if
+	 *         there is none
+	 * @throws Exception
+	 *             if a relevance cannot be computed
+	 */
+	private double computeRelevances(final Instances instances, int[] attributeOrder, final double[] relevances)
+			throws Exception {
+		final NearestCentroidFinder finder = m_finder;
+		final FloatNearestCentroidSearch floatSearch = m_floatSearch;
+		// the instances are read in place, skipping the class
+		final int[] columns = skipClass(attributeOrder, instances.classIndex());
+		int numInstances = instances.numInstances();
+		boolean packed = m_inputLayout != InputLayout.INSTANCES
+				&& (long) numInstances * columns.length <= Integer.MAX_VALUE - 8;
+		final double[] snapshot = packed && !m_singlePrecision ? new double[numInstances * columns.length] : null;
+		final float[] floatSnapshot = packed && m_singlePrecision ? new float[numInstances * columns.length] : null;
+		// sparse instances read in place are searched through their stored values only
+		final SparseNearestCentroidSearch sparseSearch = !packed && containsSparse(instances) ? sparseSearch() : null;
+		// resolved here, so that the options do not depend on the machine
+		int numSlots = m_numExecutionSlots > 0 ? m_numExecutionSlots : Runtime.getRuntime().availableProcessors();
+		int numTasks = Math.min(numSlots * TASKS_PER_SLOT, (numInstances + ROWS_PER_BATCH - 1) / ROWS_PER_BATCH);
+		if (numSlots <= 1 || numTasks <= 1) {
+			return computeRelevances(instances, relevances, finder, floatSearch, sparseSearch, columns, snapshot,
+					floatSnapshot, 0, numInstances);
+		}
+
+		// whole batches per task
+		int rangeSize = ((numInstances + numTasks - 1) / numTasks + ROWS_PER_BATCH - 1) / ROWS_PER_BATCH * ROWS_PER_BATCH;
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+		for (int start = 0; start < numInstances; start += rangeSize) {
+			final int from = start;
+			final int to = Math.min(start + rangeSize, numInstances);
+			tasks.add(new Callable<Double>() {
+				@Override
+				public Double call() throws Exception {
+					return computeRelevances(instances, relevances, finder, floatSearch, sparseSearch, columns,
+							snapshot, floatSnapshot, from, to);
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(numSlots);
+		try {
+			double minRelevance = Double.POSITIVE_INFINITY;
+			for (Future<Double> result : pool.invokeAll(tasks)) {
+				minRelevance = Math.min(minRelevance, result.get());
+			}
+			return minRelevance;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/***
+	 * Tells whether some instances are sparse
+	 * 
+	 * @param instances
+	 *            the instances
+	 * @return true if any of them is a SparseInstance
+	 */
+	private static boolean containsSparse(Instances instances) {
+		for (int i = 0; i < instances.numInstances(); i++) {
+			if (instances.get(i) instanceof SparseInstance) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/***
+	 * Gets the closest centroid search for sparse instances, built on first
+	 * use and kept along with the centroids
+	 * 
+	 * @return the search over the current centroids
+	 */
+	private synchronized SparseNearestCentroidSearch sparseSearch() {
+		if (m_sparseSearch == null) {
+			m_sparseSearch = new SparseNearestCentroidSearch(m_centroids, m_attributeOrder.length);
+		}
+		return m_sparseSearch;
+	}
+
+	/***
+	 * Computes the relevance of a range of instances
+	 * 
+	 * @param relevances
+	 *            receives the relevance of each instance
+	 * @param finder
+	 *            the closest centroid search, shared by all the ranges; null
+	 *            in single precision
+	 * @param floatSearch
+	 *            the same for single precision rows, null in double precision
+	 * @param sparseSearch
+	 *            the closest centroid search for batches of sparse instances,
+	 *            null if there are none
+	 * @param columns
+	 *            the attributes of the instances, in the order they are
+	 *            scanned
+	 * @param snapshot
+	 *            receives the values of all the instances, packed row by row;
+	 *            null to copy them batch by batch
+	 * @param floatSnapshot
+	 *            the same in single precision
+	 * @param from
+	 *            the first instance of the range
+	 * @param to
+	 *            the end of the range, exclusive
+	 * @return the minimum of the negative relevances within the range, or
+	 *         positive infinity if there is none
+	 * @throws Exception
+	 *             if a relevance cannot be computed
+	 */
+	private double computeRelevances(Instances instances, double[] relevances, NearestCentroidFinder finder,
+			FloatNearestCentroidSearch floatSearch, SparseNearestCentroidSearch sparseSearch, int[] columns, double[] snapshot, float[] floatSnapshot,
+			int from, int to) throws Exception {
+		int numAttributes = columns.length;
+		double[] rows = m_singlePrecision ? null : new double[ROWS_PER_BATCH * numAttributes];
+		float[] floatRows = m_singlePrecision ? new float[ROWS_PER_BATCH * numAttributes] : null;
+		int[] closest = new int[ROWS_PER_BATCH];
+		double[] squaredDistances = new double[ROWS_PER_BATCH];
+
+		double minRelevance = Double.POSITIVE_INFINITY;
+
+		boolean packed = snapshot != null || floatSnapshot != null;
+		int[] positions = scanPositions(columns, instances.numAttributes());
+		if (packed) {
+			// this range of the snapshot, written by this task only
+			for (int i = from; i < to; i++) {
+				if (snapshot != null) {
+					fillSnapshot(instances.get(i), columns, positions, snapshot, i * numAttributes);
+				} else {
+					fillSnapshot(instances.get(i), columns, positions, floatSnapshot, i * numAttributes);
+				}
+			}
+		}
+
+		for (int start = from; start < to; start += ROWS_PER_BATCH) {
+			int numRows = Math.min(ROWS_PER_BATCH, to - start);
+			if (sparseSearch != null && instances.get(start) instanceof SparseInstance) {
+				sparseSearch.closest(instances, start, numRows, positions, closest, squaredDistances);
+			} else if (packed) {
+				// the rows are searched where they are
+				if (snapshot != null) {
+					finder.closest(snapshot, start, numRows, closest, squaredDistances);
+				} else {
+					floatSearch.closest(floatSnapshot, start, numRows, closest, squaredDistances);
+				}
+			} else {
+				for (int r = 0; r < numRows; r++) {
+					if (rows != null) {
+						fillRow(instances.get(start + r), columns, rows, r * numAttributes);
+					} else {
+						fillRow(instances.get(start + r), columns, floatRows, r * numAttributes);
+					}
+				}
+				if (rows != null) {
+					finder.closest(rows, 0, numRows, closest, squaredDistances);
+				} else {
+					floatSearch.closest(floatRows, 0, numRows, closest, squaredDistances);
+				}
+			}
+			for (int r = 0; r < numRows; r++) {
+				double relevance = computeRelevance(m_closestCentroidImpact, Math.sqrt(squaredDistances[r]));
+				relevance = applyFunction(m_relevanceFunctionModifier, relevance);
+				if (relevance < 0)
+				{
+					minRelevance = Math.min(minRelevance, relevance);
+				}
+				relevances[start + r] = relevance;
+			}
+		}
+		return minRelevance;
+	}
+
+	static double computeRelevance(ClosestCentroidImpact closestCentroidImpact, double minDistance)
+			throws Exception {
+		if (closestCentroidImpact == ClosestCentroidImpact.ClosestCentroidHighRelevance)
+		{
+			return 1.0 / (epsilon + minDistance);
+		}
+		if (closestCentroidImpact == ClosestCentroidImpact.ClosestCentroidLowRelevance)
+		{
+			return minDistance;
+		} 
+		throw new Exception("Unknown strategy: " + closestCentroidImpact.toString());
+	}
+
+	static double applyFunction(RelevanceFunctionModifier relevanceFunctionModifier, double relevance)
+			throws Exception {
+		if (relevanceFunctionModifier == RelevanceFunctionModifier.IDENTICAL)
+		{
+			return relevance;
+		}
+		if (relevanceFunctionModifier == RelevanceFunctionModifier.EXP)
+		{
+			return Math.exp(relevance);
+		}
+		if (relevanceFunctionModifier == RelevanceFunctionModifier.LOG)
+		{
+			return Math.log(relevance);
+		}
+		if (relevanceFunctionModifier == RelevanceFunctionModifier.SIGMOID)
+		{
+			return sigmoid(relevance);
+		}
+		throw new Exception("Unknown relevance function modifier: " + relevanceFunctionModifier.toString());
+	}
+
+	private static double sigmoid(double relevance) {
+		return 1.0 / (1 + Math.exp(-relevance));
+	}
+
+	/**
+	 * The current relevances are changed to be at least 1
+	 * 
+	 * @param instances
+	 *            the set of instance whose weights (relevances) are to be
+	 *            updated
+	 */
+	private void changeRelevancesToMin1(Instances instances) {
+		double minWeight = Double.POSITIVE_INFINITY;
+		for (Instance instance : instances) {
+			minWeight = Math.min(minWeight, instance.weight());
+		}
+		for (Instance instance : instances) {
+			instance.setWeight(instance.weight() / (epsilon + minWeight));
+		}
+	}
+
+	/***
+	 * Builds the closest centroid search over the current centroids, in the
+	 * selected precision
+	 * 
+	 * @throws Exception
+	 *             if the search type is unknown, or does not support single
+	 *             precision when requested
+	 */
+	private void createSearch() throws Exception {
+		int numAttributes = m_attributeOrder.length;
+		m_finder = m_singlePrecision ? null : createFinder(m_centroids, numAttributes);
+		m_floatSearch = m_singlePrecision ? createFloatSearch(m_centroids, numAttributes) : null;
+	}
+
+	/***
+	 * Creates the single precision closest centroid search selected through
+	 * the options
+	 * 
+	 * @param centroids
+	 *            the centroids as computed in the clustering step, packed row
+	 *            by row (see {@link #packCentroids(Instances, int[])})
+	 * @param numAttributes
+	 *            the number of values of a centroid
+	 * @return a search over the given centroids
+	 * @throws Exception
+	 *             if the search type does not support single precision
+	 */
+	private FloatNearestCentroidSearch createFloatSearch(double[] centroids, int numAttributes) throws Exception {
+		// the searches which only compute distances through the kernel
+		if (m_closestCentroidSearch == ClosestCentroidSearch.AUTO
+				|| m_closestCentroidSearch == ClosestCentroidSearch.LINEAR) {
+			return new LinearNearestCentroidFinder(centroids, numAttributes, DISTANCE_KERNEL, true);
+		}
+		if (m_closestCentroidSearch == ClosestCentroidSearch.PRUNED) {
+			return new PrunedNearestCentroidFinder(centroids, numAttributes, DISTANCE_KERNEL, true);
+		}
+		throw new Exception("The " + m_closestCentroidSearch + " search does not support single precision");
+	}
+
+	/***
+	 * Creates the closest centroid search selected through the options
+	 * 
+	 * @param centroids
+	 *            the centroids as computed in the clustering step, packed row
+	 *            by row (see {@link #packCentroids(Instances, int[])})
+	 * @param numAttributes
+	 *            the number of values of a centroid
+	 * @return a search over the given centroids
+	 * @throws Exception
+	 *             if the search type is unknown
+	 */
+	private NearestCentroidFinder createFinder(double[] centroids, int numAttributes) throws Exception {
+		ClosestCentroidSearch search = m_closestCentroidSearch;
+		if (search == ClosestCentroidSearch.AUTO) {
+			search = chooseSearch(centroids.length / numAttributes, numAttributes);
+		}
+		if (search == ClosestCentroidSearch.LINEAR) {
+			return new LinearNearestCentroidFinder(centroids, numAttributes, DISTANCE_KERNEL);
+		}
+		if (search == ClosestCentroidSearch.BLOCKED) {
+			return new BlockedNearestCentroidFinder(centroids, numAttributes, DISTANCE_KERNEL);
+		}
+		if (search == ClosestCentroidSearch.PRUNED) {
+			return new PrunedNearestCentroidFinder(centroids, numAttributes, DISTANCE_KERNEL);
+		}
+		if (search == ClosestCentroidSearch.KD_TREE) {
+			return new KDTreeNearestCentroidFinder(centroids, numAttributes, DISTANCE_KERNEL);
+		}
+		if (search == ClosestCentroidSearch.BALL_TREE) {
+			return new BallTreeNearestCentroidFinder(centroids, numAttributes, DISTANCE_KERNEL);
+		}
+		throw new Exception("Unknown search type: " + m_closestCentroidSearch.toString());
+	}
+
+	/***
+	 * Cost model of the Auto search. A linear scan costs about <code>k d</code>
+	 * per row, cut down by the partial distance search, and wins for few
+	 * centroids. A KD-tree visits a number of leaves growing like
+	 * <code>2^d</code>, so it pays off while <code>2^d &lt;= k</code>. A ball
+	 * tree degrades more slowly with <code>d</code>, but each of its nodes costs
+	 * a full distance computation, so it needs many centroids to win.
+	 * 
+	 * @param numCentroids
+	 *            the number of centroids
+	 * @param numAttributes
+	 *            the number of values of a centroid
+	 * @return the search expected to be fastest
+	 */
+	static ClosestCentroidSearch chooseSearch(int numCentroids, int numAttributes) {
+		if (numCentroids < AUTO_MIN_INDEXED_CENTROIDS) {
+			return ClosestCentroidSearch.LINEAR;
+		}
+		if (numAttributes < 31 && (1 << numAttributes) <= numCentroids) {
+			return ClosestCentroidSearch.KD_TREE;
+		}
+		if (numCentroids >= AUTO_MIN_BALL_TREE_CENTROIDS) {
+			return ClosestCentroidSearch.BALL_TREE;
+		}
+		return ClosestCentroidSearch.LINEAR;
+	}
+
+	/***
+	 * Selects the distance kernel. The SIMD kernel is used when its class is
+	 * present and the Vector API module is loaded; on older JVMs loading it
+	 * fails and the scalar kernel is used instead.
+	 * 
+	 * @return the fastest kernel available
+	 */
+	private static DistanceKernel createDistanceKernel() {
+		DistanceKernel scalar = new ScalarDistanceKernel();
+		try {
+			DistanceKernel vector = (DistanceKernel) Class.forName(VECTOR_DISTANCE_KERNEL).getDeclaredConstructor()
+					.newInstance();
+			// both kernels must agree on a small example before the SIMD one is trusted
+			double[] row = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17 };
+			double[] centroid = new double[row.length];
+			if (vector.squaredDistance(row, 0, centroid, 0, row.length, Double.POSITIVE_INFINITY) == scalar
+					.squaredDistance(row, 0, centroid, 0, row.length, Double.POSITIVE_INFINITY)) {
+				return vector;
+			}
+		} catch (Throwable e) {
+			// class missing, compiled for a newer JVM, or jdk.incubator.vector not loaded
+		}
+		return scalar;
+	}
+
+	/***
+	 * Packs the centroids into a contiguous array, one centroid after another
+	 * 
+	 * @param centers
+	 *            the centroids as computed in the clustering step
+	 * @param attributeOrder
+	 *            the attributes to be copied, in the order they are scanned
+	 * @return an array of <code>centers.numInstances() * attributeOrder.length</code>
+	 *         values
+	 */
+	private static double[] packCentroids(Instances centers, int[] attributeOrder) {
+		int numAttributes = attributeOrder.length;
+		double[] centroids = new double[centers.numInstances() * numAttributes];
+		for (int i = 0; i < centers.numInstances(); i++) {
+			fillRow(centers.get(i), attributeOrder, centroids, i * numAttributes);
+		}
+		return centroids;
+	}
+
+	/***
+	 * Copies the values of an instance into a reusable buffer
+	 * 
+	 * @param instance
+	 *            a data row
+	 * @param attributeOrder
+	 *            the attributes to be copied, in the order they are scanned
+	 * @param target
+	 *            the buffer to be filled
+	 * @param offset
+	 *            the position within <code>target</code> of the first value
+	 */
+	static void fillRow(Instance instance, int[] attributeOrder, double[] target, int offset) {
+		for (int i = 0; i < attributeOrder.length; i++) {
+			target[offset + i] = instance.value(attributeOrder[i]);
+		}
+	}
+
+	/***
+	 * Copies the values of an instance into a reusable single precision buffer
+	 * 
+	 * @see #fillRow(Instance, int[], double[], int)
+	 */
+	static void fillRow(Instance instance, int[] attributeOrder, float[] target, int offset) {
+		for (int i = 0; i < attributeOrder.length; i++) {
+			target[offset + i] = (float) instance.value(attributeOrder[i]);
+		}
+	}
+
+	/***
+	 * Copies the values of an instance into the snapshot. The values of a
+	 * sparse instance are scattered from its non zero entries, without
+	 * searching for each attribute; the snapshot is freshly allocated, so the
+	 * other entries are already zero.
+	 * 
+	 * @param instance
+	 *            a data row
+	 * @param columns
+	 *            the attributes to be copied, in the order they are scanned
+	 * @param positions
+	 *            the scan position of each attribute of the instance, -1 for
+	 *            the ones not scanned
+	 * @param snapshot
+	 *            the snapshot to be filled
+	 * @param offset
+	 *            the position within <code>snapshot</code> of the first value
+	 */
+	private static void fillSnapshot(Instance instance, int[] columns, int[] positions, double[] snapshot,
+			int offset) {
+		if (instance instanceof SparseInstance) {
+			for (int p = 0; p < instance.numValues(); p++) {
+				int position = positions[instance.index(p)];
+				if (position >= 0) {
+					snapshot[offset + position] = instance.valueSparse(p);
+				}
+			}
+		} else {
+			for (int i = 0; i < columns.length; i++) {
+				snapshot[offset + i] = instance.value(columns[i]);
+			}
+		}
+	}
+
+	/***
+	 * Copies the values of an instance into a single precision snapshot
+	 * 
+	 * @see #fillSnapshot(Instance, int[], int[], double[], int)
+	 */
+	private static void fillSnapshot(Instance instance, int[] columns, int[] positions, float[] snapshot,
+			int offset) {
+		if (instance instanceof SparseInstance) {
+			for (int p = 0; p < instance.numValues(); p++) {
+				int position = positions[instance.index(p)];
+				if (position >= 0) {
+					snapshot[offset + position] = (float) instance.valueSparse(p);
+				}
+			}
+		} else {
+			for (int i = 0; i < columns.length; i++) {
+				snapshot[offset + i] = (float) instance.value(columns[i]);
+			}
+		}
+	}
+
+	/***
+	 * Inverts a scan order
+	 * 
+	 * @param columns
+	 *            the attributes, in the order they are scanned
+	 * @param numAttributes
+	 *            the number of attributes of the instances
+	 * @return the scan position of each attribute, -1 for the ones not scanned
+	 */
+	static int[] scanPositions(int[] columns, int numAttributes) {
+		int[] positions = new int[numAttributes];
+		Arrays.fill(positions, -1);
+		for (int i = 0; i < columns.length; i++) {
+			positions[columns[i]] = i;
+		}
+		return positions;
+	}
+
+	/***
+	 * Maps attribute indices of the data without class to the data with class
+	 * 
+	 * @param attributeOrder
+	 *            attribute indices, class excluded
+	 * @param classIndex
+	 *            the index of the class, negative if there is none
+	 * @return the same attributes, indexed as in the data with class
+	 */
+	static int[] skipClass(int[] attributeOrder, int classIndex) {
+		int[] columns = new int[attributeOrder.length];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = classIndex >= 0 && attributeOrder[i] >= classIndex ? attributeOrder[i] + 1 : attributeOrder[i];
+		}
+		return columns;
+	}
+
+	private static int[] naturalOrder(Instances centers) {
+		int[] order = new int[centers.numAttributes()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		return order;
+	}
+
+	/***
+	 * Orders the attributes by decreasing variance of the centroids. The
+	 * attributes that separate the centroids best come first, so that the
+	 * partial distance search discards the wrong candidates sooner.
+	 * 
+	 * @param centers
+	 *            the centroids as computed in the clustering step
+	 * @return the attribute indices, sorted by decreasing variance
+	 */
+	private static int[] orderByVariance(Instances centers) {
+		int[] order = naturalOrder(centers);
+		final double[] variances = new double[order.length];
+		for (int i = 0; i < order.length; i++) {
+			variances[i] = centers.variance(i);
+		}
+		Integer[] sorted = new Integer[order.length];
+		for (int i = 0; i < order.length; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(variances[b], variances[a]);
+			}
+		});
+		for (int i = 0; i < order.length; i++) {
+			order[i] = sorted[i];
+		}
+		return order;
+	}
+
+	/***
+	 * Shares a sample size among strata by largest remainder. If the size
+	 * allows it, each non empty stratum gets one instance and the rest is
+	 * shared in proportion to the other instances of the strata; otherwise the
+	 * size is shared in proportion to the sizes of the strata.
+	 * 
+	 * @param stratumSizes
+	 *            the number of instances of each stratum
+	 * @param numInstances
+	 *            the total number of instances
+	 * @param size
+	 *            the sample size, from 1 to numInstances - 1
+	 * @return the reservoir size of each stratum, adding up to size
+	 */
+	static int[] reservoirSizes(int[] stratumSizes, int numInstances, int size) {
+		int numNonEmpty = 0;
+		for (int stratumSize : stratumSizes) {
+			if (stratumSize > 0) {
+				numNonEmpty++;
+			}
+		}
+		boolean onePerStratum = size >= numNonEmpty;
+
+		int[] sizes = new int[stratumSizes.length];
+		double[] remainders = new double[stratumSizes.length];
+		int assigned = 0;
+		for (int s = 0; s < stratumSizes.length; s++) {
+			if (stratumSizes[s] == 0) {
+				continue;
+			}
+			double quota = onePerStratum
+					? 1 + (double) (size - numNonEmpty) * (stratumSizes[s] - 1) / (numInstances - numNonEmpty)
+					: (double) size * stratumSizes[s] / numInstances;
+			sizes[s] = (int) quota;
+			remainders[s] = quota - sizes[s];
+			assigned += sizes[s];
+		}
+		// the instances left go to the largest remainders
+		for (; assigned < size; assigned++) {
+			int largest = -1;
+			for (int s = 0; s < stratumSizes.length; s++) {
+				if (sizes[s] < stratumSizes[s] && (largest < 0 || remainders[s] > remainders[largest])) {
+					largest = s;
+				}
+			}
+			sizes[largest]++;
+			remainders[largest] = -1;
+		}
+		return sizes;
+	}
+
+	/***
+	 * Draws the sample the clustering runs on, through reservoir sampling. When
+	 * stratified, each value of a nominal class gets its own reservoir, sized
+	 * in proportion to the frequency of the value; the sizes add up to the
+	 * sample size, and every value present gets at least one instance when the
+	 * sample is large enough.
+	 * 
+	 * @param instances
+	 *            the instances, with classes
+	 * @return which instances are sampled, or null if no sampling is needed
+	 */
+	boolean[] sample(Instances instances) {
+		int numInstances = instances.numInstances();
+		int size = (int) Math.round(numInstances * Math.min(m_samplePercent, 100) / 100);
+		if (m_sampleSize > 0) {
+			size = Math.min(size, m_sampleSize);
+		}
+		size = Math.max(size, 1);
+		if (size >= numInstances) {
+			return null;
+		}
+
+		Random random = new Random(m_sampleSeed);
+		boolean stratify = m_stratifySample && instances.classIndex() >= 0 && instances.classAttribute().isNominal();
+		int numStrata = stratify ? instances.classAttribute().numValues() + 1 : 1;
+
+		// stratum of each instance; missing classes get the last stratum
+		int[] strata = new int[numInstances];
+		int[] stratumSizes = new int[numStrata];
+		for (int i = 0; i < numInstances; i++) {
+			if (stratify) {
+				Instance instance = instances.get(i);
+				strata[i] = instance.classIsMissing() ? numStrata - 1 : (int) instance.classValue();
+			}
+			stratumSizes[strata[i]]++;
+		}
+
+		int[] reservoirSizes = reservoirSizes(stratumSizes, numInstances, size);
+		int[][] reservoirs = new int[numStrata][];
+		int[] seen = new int[numStrata];
+		for (int s = 0; s < numStrata; s++) {
+			reservoirs[s] = new int[reservoirSizes[s]];
+		}
+		for (int i = 0; i < numInstances; i++) {
+			int[] reservoir = reservoirs[strata[i]];
+			int position = seen[strata[i]]++;
+			if (position < reservoir.length) {
+				reservoir[position] = i;
+			} else {
+				int j = random.nextInt(position + 1);
+				if (j < reservoir.length) {
+					reservoir[j] = i;
+				}
+			}
+		}
+
+		boolean[] selected = new boolean[numInstances];
+		for (int[] reservoir : reservoirs) {
+			for (int i : reservoir) {
+				selected[i] = true;
+			}
+		}
+		return selected;
+	}
+
+	/***
+	 * Gets the centroids of a data set, from the centroid cache if the same
+	 * data was clustered lately with the same settings.
+	 * 
+	 * @param instances
+	 *            the instances to be clustered
+	 * @return a set of centroids, not to be modified
+	 * @throws Exception
+	 */
+	private Instances getCentroids(Instances instances) throws Exception {
+		if (m_cacheSize <= 0) {
+			return cluster(instances);
+		}
+
+		String settings = getClustererSpec() + " -L " + m_minNumClusters + " -H " + m_maxNumClusters + " -I "
+				+ m_maxIterations + " -T " + m_timeBudget;
+		CentroidCache.Key key = CentroidCache.fingerprint(instances, settings);
+		Instances centers = CENTROID_CACHE.get(key);
+		if (centers == null) {
+			centers = cluster(instances);
+			CENTROID_CACHE.put(key, centers, (long) (m_cacheSize * 1024 * 1024));
+		}
+		return centers;
+	}
+
+	/***
+	 * Applies a clustering algorithm for a data set. XMeans is run with the
+	 * limits and time budget set on this filter; any other clusterer is run
+	 * as configured.
 	 * 
 	 * @param instances
 	 *            the instances to be clustered
 	 * @return a set of centroids
 	 * @throws Exception
 	 */
-	private static Instances getCentroids(Instances instances) throws Exception {
-		XMeans clusterer = new XMeans();
-		clusterer.setMaxNumClusters(1000);// TODO: expose as hyperparameter
-		clusterer.setMinNumClusters(2);// TODO: expose as hyperparameter
-		clusterer.setMaxIterations(1000);// TODO: expose as hyperparameter
+	private Instances cluster(Instances instances) throws Exception {
+		CentroidExtractor extractor = CentroidExtractors.forClusterer(m_clusterer);
+		if (extractor == null) {
+			throw new Exception("The cluster centers of " + m_clusterer.getClass().getName() + " cannot be extracted");
+		}
+
+		Clusterer clusterer;
+		if (m_clusterer instanceof XMeans) {
+			TimeBoundedXMeans xmeans = new TimeBoundedXMeans();
+			xmeans.copySettings((XMeans) m_clusterer);
+			xmeans.setMaxNumClusters(m_maxNumClusters);
+			xmeans.setMinNumClusters(m_minNumClusters);
+			xmeans.setMaxIterations(m_maxIterations);
+			xmeans.setTimeBudget(m_timeBudget);
+			clusterer = xmeans;
+		} else {
+			clusterer = AbstractClusterer.makeCopy(m_clusterer);
+		}
 		clusterer.buildClusterer(instances);
 
-		Instances centroids = clusterer.getClusterCenters();
-		return centroids;
+		return extractor.getCentroids(clusterer);
 	}
 
 	/**
-	 * Removes the class from an instance
+	 * Copies the instances to be clustered, class removed. This is the only
+	 * copy of the data the filter makes; without a class and a sample, the
+	 * instances are clustered as they are.
 	 * 
 	 * @param instances
 	 *            a set of weka instances with classes
+	 * @param selected
+	 *            which instances to copy, or null for all of them
 	 * @return a set of weka instances without classes
 	 * @throws Exception
 	 *             by weka internals
 	 */
-	private static Instances removeClass(Instances instances) throws Exception {
-		Instances instancesWOClasses = new Instances(instances);
-		Remove remove = new Remove();
-		System.out.println("class index to be removed: " + (1 + instancesWOClasses.classIndex()));
-		System.out.println("Instances count: " + instances.numInstances());
-		remove.setAttributeIndices(1 + instancesWOClasses.classIndex() + "");
-		remove.setInputFormat(instancesWOClasses);
-		instancesWOClasses = Filter.useFilter(instancesWOClasses, remove);
+	private static Instances removeClass(Instances instances, boolean[] selected) throws Exception {
+		int classIndex = instances.classIndex();
+		if (classIndex < 0 && selected == null) {
+			return instances;
+		}
+
+		Instances instancesWOClasses = new Instances(instances, 0);
+		if (classIndex >= 0) {
+			instancesWOClasses.setClassIndex(-1);
+			instancesWOClasses.deleteAttributeAt(classIndex);
+		}
+		int numAttributes = instancesWOClasses.numAttributes();
+		for (int i = 0; i < instances.numInstances(); i++) {
+			if (selected != null && !selected[i]) {
+				continue;
+			}
+			Instance instance = instances.get(i);
+			Instance copy;
+			if (instance instanceof SparseInstance || classIndex < 0) {
+				copy = (Instance) instance.copy();
+				copy.setDataset(null);
+				if (classIndex >= 0) {
+					copy.deleteAttributeAt(classIndex);
+				}
+			} else {
+				double[] values = new double[numAttributes];
+				for (int j = 0; j < numAttributes; j++) {
+					values[j] = instance.value(j < classIndex ? j : j + 1);
+				}
+				copy = new DenseInstance(instance.weight(), values);
+			}
+			instancesWOClasses.add(copy);
+		}
 		return instancesWOClasses;
 	}
 }
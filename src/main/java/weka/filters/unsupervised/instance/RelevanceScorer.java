@@ -0,0 +1,180 @@
+/**
+ * Single instance scoring against the centroids of a fitted relevance filter
+ */
+package weka.filters.unsupervised.instance;
+
+import weka.core.Instance;
+import weka.core.SparseInstance;
+import weka.filters.unsupervised.instance.RelevanceClusteringClosestCentrHighRel.ClosestCentroidImpact;
+import weka.filters.unsupervised.instance.RelevanceClusteringClosestCentrHighRel.RelevanceFunctionModifier;
+
+/**
+ * Scores single instances against the centroids of a fitted relevance filter,
+ * for online use; obtained through
+ * {@link RelevanceClusteringClosestCentrHighRel#createScorer()}. A score is
+ * the weight the filter gives to the instance, relevance shift included.
+ * <p/>
+ * The scorer can be shared by any number of threads. Each thread gets its
+ * own buffers on its first call, so that scoring allocates nothing afterwards.
+ * The search for sparse instances is built on the first sparse instance
+ * scored.
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class RelevanceScorer {
+
+	/** the index, in the input format, of each attribute in scan order */
+	private final int[] m_columns;
+
+	/** the scan position of each attribute of the input format, -1 for the class */
+	private final int[] m_positions;
+
+	/** the closest centroid search, null in single precision */
+	private final NearestCentroidFinder m_finder;
+
+	/** the closest centroid search in single precision, null in double precision */
+	private final FloatNearestCentroidSearch m_floatSearch;
+
+	/** the centroids, packed row by row in scan order */
+	private final double[] m_centroids;
+
+	/** the closest centroid search for sparse instances, built on first use */
+	private volatile SparseNearestCentroidSearch m_sparseSearch;
+
+	private final ClosestCentroidImpact m_closestCentroidImpact;
+
+	private final RelevanceFunctionModifier m_relevanceFunctionModifier;
+
+	private final double m_relevanceShift;
+
+	/** the buffers of each thread */
+	private final ThreadLocal<Buffers> m_buffers;
+
+	RelevanceScorer(double[] centroids, int[] attributeOrder, int numAttributes, int classIndex,
+			NearestCentroidFinder finder, FloatNearestCentroidSearch floatSearch,
+			ClosestCentroidImpact closestCentroidImpact, RelevanceFunctionModifier relevanceFunctionModifier,
+			double relevanceShift) {
+		m_columns = RelevanceClusteringClosestCentrHighRel.skipClass(attributeOrder, classIndex);
+		m_positions = RelevanceClusteringClosestCentrHighRel.scanPositions(m_columns, numAttributes);
+		m_finder = finder;
+		m_floatSearch = floatSearch;
+		m_centroids = centroids;
+		m_closestCentroidImpact = closestCentroidImpact;
+		m_relevanceFunctionModifier = relevanceFunctionModifier;
+		m_relevanceShift = relevanceShift;
+
+		final int numScanned = attributeOrder.length;
+		final int numCentroids = centroids.length / numScanned;
+		m_buffers = new ThreadLocal<Buffers>() {
+			@Override
+			protected Buffers initialValue() {
+				return new Buffers(numScanned, numCentroids);
+			}
+		};
+	}
+
+	/***
+	 * Scores an instance
+	 *
+	 * @param instance
+	 *            an instance in the input format of the filter
+	 * @return the weight the filter gives to the instance
+	 * @throws Exception
+	 *             if the relevance cannot be computed
+	 */
+	public double relevance(Instance instance) throws Exception {
+		Buffers buffers = m_buffers.get();
+		if (instance instanceof SparseInstance) {
+			sparseSearch().closest(instance, m_positions, buffers.m_dots, buffers.m_nearest,
+					buffers.m_squaredDistance, 0);
+		} else if (m_floatSearch != null) {
+			RelevanceClusteringClosestCentrHighRel.fillRow(instance, m_columns, buffers.m_floatRow, 0);
+			m_floatSearch.closest(buffers.m_floatRow, 0, 1, buffers.m_nearest, buffers.m_squaredDistance);
+		} else {
+			RelevanceClusteringClosestCentrHighRel.fillRow(instance, m_columns, buffers.m_row, 0);
+			m_finder.closest(buffers.m_row, 0, 1, buffers.m_nearest, buffers.m_squaredDistance);
+		}
+		return score(buffers.m_squaredDistance[0]);
+	}
+
+	/***
+	 * Scores the values of an instance
+	 *
+	 * @param values
+	 *            the values of an instance, one for each attribute of the
+	 *            input format of the filter, as given by
+	 *            Instance.toDoubleArray(); the class value is ignored
+	 * @return the weight the filter gives to the instance
+	 * @throws Exception
+	 *             if the relevance cannot be computed
+	 */
+	public double relevance(double[] values) throws Exception {
+		Buffers buffers = m_buffers.get();
+		if (m_floatSearch != null) {
+			for (int i = 0; i < m_columns.length; i++) {
+				buffers.m_floatRow[i] = (float) values[m_columns[i]];
+			}
+			m_floatSearch.closest(buffers.m_floatRow, 0, 1, buffers.m_nearest, buffers.m_squaredDistance);
+		} else {
+			for (int i = 0; i < m_columns.length; i++) {
+				buffers.m_row[i] = values[m_columns[i]];
+			}
+			m_finder.closest(buffers.m_row, 0, 1, buffers.m_nearest, buffers.m_squaredDistance);
+		}
+		return score(buffers.m_squaredDistance[0]);
+	}
+
+	/***
+	 * Gets the closest centroid search for sparse instances, built on first
+	 * use
+	 *
+	 * @return the search over the centroids
+	 */
+	private SparseNearestCentroidSearch sparseSearch() {
+		SparseNearestCentroidSearch sparseSearch = m_sparseSearch;
+		if (sparseSearch == null) {
+			synchronized (this) {
+				sparseSearch = m_sparseSearch;
+				if (sparseSearch == null) {
+					sparseSearch = new SparseNearestCentroidSearch(m_centroids, m_columns.length);
+					m_sparseSearch = sparseSearch;
+				}
+			}
+		}
+		return sparseSearch;
+	}
+
+	/***
+	 * Turns the squared distance to the closest centroid into a weight
+	 *
+	 * @param squaredDistance
+	 *            the squared distance to the closest centroid
+	 * @return the shifted relevance
+	 * @throws Exception
+	 *             if the relevance settings are unknown
+	 */
+	private double score(double squaredDistance) throws Exception {
+		double relevance = RelevanceClusteringClosestCentrHighRel.computeRelevance(m_closestCentroidImpact,
+				Math.sqrt(squaredDistance));
+		return RelevanceClusteringClosestCentrHighRel.applyFunction(m_relevanceFunctionModifier, relevance)
+				+ m_relevanceShift;
+	}
+
+	/**
+	 * The buffers of one thread.
+	 */
+	private static class Buffers {
+
+		final double[] m_row;
+		final float[] m_floatRow;
+		final double[] m_dots;
+		final int[] m_nearest = new int[1];
+		final double[] m_squaredDistance = new double[1];
+
+		Buffers(int numAttributes, int numCentroids) {
+			m_row = new double[numAttributes];
+			m_floatRow = new float[numAttributes];
+			m_dots = new double[numCentroids];
+		}
+	}
+}
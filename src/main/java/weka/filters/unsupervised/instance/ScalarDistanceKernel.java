@@ -0,0 +1,59 @@
+/**
+ * Plain Java squared Euclidean distance kernel
+ */
+package weka.filters.unsupervised.instance;
+
+/**
+ * Plain Java distance kernel; available on every JVM.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+final class ScalarDistanceKernel implements DistanceKernel {
+
+	// number of attributes summed up between two checks of the partial distance
+	final static int PARTIAL_DISTANCE_BLOCK = 8;
+
+	@Override
+	public double squaredDistance(double[] rows, int rowOffset, double[] centroids, int centroidOffset,
+			int numAttributes, double bound) {
+		double sum = 0.0;
+		int i = 0;
+		// the bound is checked once per block, so that the inner loop stays branch free
+		for (int blockEnd = PARTIAL_DISTANCE_BLOCK; blockEnd <= numAttributes; blockEnd += PARTIAL_DISTANCE_BLOCK) {
+			for (; i < blockEnd; i++) {
+				double diff = rows[rowOffset + i] - centroids[centroidOffset + i];
+				sum += diff * diff;
+			}
+			if (sum > bound) {
+				return sum;
+			}
+		}
+		for (; i < numAttributes; i++) {
+			double diff = rows[rowOffset + i] - centroids[centroidOffset + i];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	@Override
+	public double squaredDistance(float[] rows, int rowOffset, float[] centroids, int centroidOffset,
+			int numAttributes, double bound) {
+		// the differences are widened, the sum is kept in double precision
+		double sum = 0.0;
+		int i = 0;
+		for (int blockEnd = PARTIAL_DISTANCE_BLOCK; blockEnd <= numAttributes; blockEnd += PARTIAL_DISTANCE_BLOCK) {
+			for (; i < blockEnd; i++) {
+				double diff = rows[rowOffset + i] - centroids[centroidOffset + i];
+				sum += diff * diff;
+			}
+			if (sum > bound) {
+				return sum;
+			}
+		}
+		for (; i < numAttributes; i++) {
+			double diff = rows[rowOffset + i] - centroids[centroidOffset + i];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+}
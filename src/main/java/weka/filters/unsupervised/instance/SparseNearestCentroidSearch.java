@@ -0,0 +1,128 @@
+/**
+ * Closest centroid search over the non zero values of sparse instances
+ */
+package weka.filters.unsupervised.instance;
+
+import java.util.Arrays;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Finds the closest centroid of sparse instances in time proportional to their
+ * non zero values. The squared distance is computed in matrix form,
+ * <code>||x - c||^2 = ||x||^2 - 2 x.c + ||c||^2</code>, where the norms of the
+ * centroids are computed once and <code>||x||^2</code> and the dot products
+ * only run over the values stored in the instance. The centroids are kept
+ * attribute by attribute, so that a non zero value updates the dot products
+ * with all the centroids in one contiguous pass. As for any computation in
+ * matrix form, the distances lose accuracy through cancellation when a row is
+ * very close to a centroid. Read only once constructed, so an instance can be
+ * shared between threads.
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+class SparseNearestCentroidSearch {
+
+	/** the centroids attribute by attribute: the value of centroid c at position p is at p * k + c */
+	private final double[] m_transposed;
+
+	/** squared norm of each centroid */
+	private final double[] m_centroidNorms;
+
+	/** the number of centroids */
+	private final int m_numCentroids;
+
+	SparseNearestCentroidSearch(double[] centroids, int numAttributes) {
+		m_numCentroids = centroids.length / numAttributes;
+		m_transposed = new double[centroids.length];
+		m_centroidNorms = new double[m_numCentroids];
+		for (int c = 0; c < m_numCentroids; c++) {
+			double norm = 0.0;
+			for (int p = 0; p < numAttributes; p++) {
+				double value = centroids[c * numAttributes + p];
+				m_transposed[p * m_numCentroids + c] = value;
+				norm += value * value;
+			}
+			m_centroidNorms[c] = norm;
+		}
+	}
+
+	/***
+	 * Finds the closest centroid of each instance in a range
+	 *
+	 * @param instances
+	 *            the instances; any instance is read through its stored
+	 *            values only
+	 * @param firstRow
+	 *            the index of the first instance to be processed
+	 * @param numRows
+	 *            the number of instances to be processed
+	 * @param positions
+	 *            the scan position of each attribute of the instances, -1 for
+	 *            the ones not scanned (the class)
+	 * @param closest
+	 *            receives the index of the closest centroid of each instance,
+	 *            starting at 0
+	 * @param squaredDistances
+	 *            receives the squared distance to the closest centroid of each
+	 *            instance, starting at 0
+	 */
+	void closest(Instances instances, int firstRow, int numRows, int[] positions, int[] closest,
+			double[] squaredDistances) {
+		double[] dots = new double[m_numCentroids];
+		for (int r = 0; r < numRows; r++) {
+			closest(instances.get(firstRow + r), positions, dots, closest, squaredDistances, r);
+		}
+	}
+
+	/***
+	 * Finds the closest centroid of one instance
+	 *
+	 * @param instance
+	 *            the instance, read through its stored values only
+	 * @param positions
+	 *            the scan position of each attribute of the instance, -1 for
+	 *            the ones not scanned (the class)
+	 * @param dots
+	 *            a buffer of one value per centroid
+	 * @param closest
+	 *            receives the index of the closest centroid at position
+	 *            <code>r</code>
+	 * @param squaredDistances
+	 *            receives the squared distance to the closest centroid at
+	 *            position <code>r</code>
+	 * @param r
+	 *            where the results are stored
+	 */
+	void closest(Instance instance, int[] positions, double[] dots, int[] closest, double[] squaredDistances, int r) {
+		Arrays.fill(dots, 0.0);
+		double norm = 0.0;
+		for (int i = 0; i < instance.numValues(); i++) {
+			int position = positions[instance.index(i)];
+			double value = instance.valueSparse(i);
+			if (position < 0 || value == 0) {
+				continue;
+			}
+			norm += value * value;
+			int offset = position * m_numCentroids;
+			for (int c = 0; c < m_numCentroids; c++) {
+				dots[c] += value * m_transposed[offset + c];
+			}
+		}
+
+		int best = 0;
+		double min = norm - 2 * dots[0] + m_centroidNorms[0];
+		for (int c = 1; c < m_numCentroids; c++) {
+			double distance = norm - 2 * dots[c] + m_centroidNorms[c];
+			if (distance < min) {
+				min = distance;
+				best = c;
+			}
+		}
+
+		closest[r] = best;
+		// rounding may turn a zero distance slightly negative
+		squaredDistances[r] = Math.max(min, 0.0);
+	}
+}
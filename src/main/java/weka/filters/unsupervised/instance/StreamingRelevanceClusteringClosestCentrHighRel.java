@@ -0,0 +1,675 @@
+/**
+ * Streaming variant of the relevance filter, for data sets larger than the heap
+ */
+package weka.filters.unsupervised.instance;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Vector;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.RevisionUtils;
+import weka.core.SingleIndex;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.filters.StreamableFilter;
+
+/**
+ * Streaming variant of {@link RelevanceClusteringClosestCentrHighRel}, for
+ * data sets which do not fit in memory. The clustering runs on the first
+ * instances of the stream only (or is replaced by a saved centroid model);
+ * the relevance shift is decided on these instances as well. Every later
+ * instance is weighted and output as soon as it is input, so that memory use
+ * does not depend on the size of the data. When run from the command line on
+ * an ARFF file, the instances are read one at a time by the ARFF loader.
+ * <p/>
+ * The instances after the head sample are weighted with the shift of the
+ * sample, so an instance less relevant than all the sample gets a weight
+ * below 1. The two pass mode avoids this: a first pass over the file computes
+ * the minimum relevance of all the instances, a second pass writes the
+ * weighted instances, shifted as the batch filter would shift them. Both
+ * passes read and write the files sequentially, one instance at a time; it is
+ * run from the command line with <code>-two-pass</code>, besides the usual
+ * <code>-i</code>, <code>-o</code> and <code>-c</code> options.
+ * <p/>
+ * For continuous streams whose distribution drifts, the centroids can be
+ * updated by the instances after the head sample, as in sequential k-means:
+ * each instance moves its closest centroid towards itself by the inverse of
+ * the number of instances the centroid has seen. This number is capped at
+ * the size of the head sample, so that old instances are forgotten and the
+ * centroids follow the stream. Periodically, the closest
+ * centroids are merged when they lie within each other's spread, and the
+ * centroid spread the most is split along its widest attribute, in the
+ * spirit of X-means; the number of centroids stays within the bounds set for
+ * the clustering. The state kept is a few values per centroid and attribute,
+ * whatever the length of the stream. The updates do not apply to the two
+ * pass mode.
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class StreamingRelevanceClusteringClosestCentrHighRel extends RelevanceClusteringClosestCentrHighRel
+		implements StreamableFilter {
+
+	/**
+	 * for serialization purposes
+	 */
+	private static final long serialVersionUID = 1L;
+
+	// a centroid is split when its spread exceeds the average spread of the other ones this many times
+	final static double SPLIT_SPREAD_RATIO = 4;
+
+	// least number of instances a centroid must have seen before it is split
+	final static int MIN_SPLIT_COUNT = 20;
+
+	protected int m_headSampleSize = 10000;
+	protected boolean m_updateCentroids = false;
+	protected int m_updateInterval = 1000;
+
+	// the centroids being updated, published to the search every m_updateInterval instances
+	protected double[] m_updated;
+	// number of instances seen by each centroid
+	protected double[] m_counts;
+	// variance of each attribute around each centroid, packed as the centroids
+	protected double[] m_variances;
+	private double[] m_updateRow;
+	private int m_numUpdates;
+
+	@Override
+	public String globalInfo() {
+		return "Computes relevance scores for data instances, based on clustering; streaming version, which "
+				+ "clusters the first instances of the stream, or applies a saved centroid model, and weights "
+				+ "the other instances as they come";
+	}
+
+	@Override
+	public String[] getOptions() {
+		ArrayList<String> options = new ArrayList<String>();
+
+		options.add("-head-sample");
+		options.add("" + getHeadSampleSize());
+
+		if (getUpdateCentroids()) {
+			options.add("-update");
+		}
+
+		options.add("-update-interval");
+		options.add("" + getUpdateInterval());
+
+		Collections.addAll(options, super.getOptions());
+
+		return options.toArray(new String[1]);
+	}
+
+	/**
+	 * Parses a given list of options.
+	 * <p/>
+	 *
+	 * <pre>
+	 * -head-sample &lt;num&gt;
+	 *  Number of instances at the head of the stream which are
+	 *  buffered and clustered; ignored with -load-model.
+	 *  (default: 10000).
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -update
+	 *  Update the centroids with the instances after the head sample.
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -update-interval &lt;num&gt;
+	 *  Number of instances between two publications of the updated
+	 *  centroids, each followed by a split and merge step.
+	 *  (default: 1000).
+	 * </pre>
+	 *
+	 * The other options are the ones of
+	 * {@link RelevanceClusteringClosestCentrHighRel}.
+	 *
+	 * @param options
+	 *            the list of options as an array of strings
+	 * @throws Exception
+	 *             if an option is not supported
+	 */
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		String headSample = Utils.getOption("head-sample", options);
+		if (headSample.length() != 0) {
+			setHeadSampleSize(Integer.parseInt(headSample));
+		} else {
+			setHeadSampleSize(10000);
+		}
+
+		setUpdateCentroids(Utils.getFlag("update", options));
+
+		String updateInterval = Utils.getOption("update-interval", options);
+		if (updateInterval.length() != 0) {
+			setUpdateInterval(Integer.parseInt(updateInterval));
+		} else {
+			setUpdateInterval(1000);
+		}
+
+		super.setOptions(options);
+	}
+
+	@Override
+	public Enumeration<Option> listOptions() {
+		Vector<Option> newVector = new Vector<Option>();
+
+		newVector.add(new Option("\tNumber of instances at the head of the stream which are clustered."
+				+ "\n\t(default: 10000).", "head-sample", 1, "-head-sample <num>"));
+
+		newVector.add(new Option("\tUpdate the centroids with the instances after the head sample.", "update", 0,
+				"-update"));
+
+		newVector.add(new Option("\tNumber of instances between two publications of the updated centroids."
+				+ "\n\t(default: 1000).", "update-interval", 1, "-update-interval <num>"));
+
+		newVector.add(new Option("\tFilter the file given by -i into the file given by -o in two passes,"
+				+ "\n\tshifting all the weights as the batch filter does; command line only.", "two-pass", 0,
+				"-two-pass"));
+
+		newVector.addAll(Collections.list(super.listOptions()));
+
+		return newVector.elements();
+	}
+
+	public void setHeadSampleSize(int headSampleSize) {
+		m_headSampleSize = headSampleSize;
+	}
+
+	public int getHeadSampleSize() {
+		return m_headSampleSize;
+	}
+
+	public String headSampleSizeTipText() {
+		return "The number of instances at the head of the stream which are buffered and clustered; the "
+				+ "instances after them are weighted as they come. Ignored when a centroid model is loaded";
+	}
+
+	public void setUpdateCentroids(boolean updateCentroids) {
+		m_updateCentroids = updateCentroids;
+	}
+
+	public boolean getUpdateCentroids() {
+		return m_updateCentroids;
+	}
+
+	public String updateCentroidsTipText() {
+		return "Whether the instances after the head sample move their closest centroids, with periodic splits and "
+				+ "merges of the centroids, so that the relevances follow a drifting stream";
+	}
+
+	public void setUpdateInterval(int updateInterval) {
+		m_updateInterval = updateInterval;
+	}
+
+	public int getUpdateInterval() {
+		return m_updateInterval;
+	}
+
+	public String updateIntervalTipText() {
+		return "The number of instances between two publications of the updated centroids to the closest "
+				+ "centroid search; the centroids are split and merged at each publication";
+	}
+
+	@Override
+	protected boolean hasImmediateOutputFormat() {
+		return true;
+	}
+
+	/**
+	 * Input an instance for filtering. The instances of the head sample are
+	 * buffered until the sample is complete; every later instance is weighted
+	 * and made available for output at once.
+	 *
+	 * @param instance
+	 *            the input instance
+	 * @return true if the filtered instance may now be collected with
+	 *         output().
+	 * @throws Exception
+	 *             if the input format has not been set, or the relevance
+	 *             cannot be computed
+	 */
+	@Override
+	public boolean input(Instance instance) throws Exception {
+		if (getInputFormat() == null) {
+			throw new IllegalStateException("No input instance format defined");
+		}
+		if (m_NewBatch) {
+			resetQueue();
+			m_NewBatch = false;
+			if (!isFirstBatchDone() || m_refit) {
+				resetModel();
+			}
+		}
+
+		if (m_centroids == null && !m_loadModel.isDirectory()) {
+			loadModel(getInputFormat());
+		}
+
+		if (m_centroids != null) {
+			Instance weighted = (Instance) instance.copy();
+			weighted.setWeight(relevanceOf(instance) + m_relevanceShift);
+			if (m_updateCentroids) {
+				updateCentroids(instance);
+			}
+			push(weighted, false);
+			return true;
+		}
+
+		bufferInput(instance);
+		if (getInputFormat().numInstances() >= Math.max(2, m_headSampleSize)) {
+			processHead();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Signify that this batch of input to the filter is finished. A head
+	 * sample still buffered, because the stream was shorter than the sample,
+	 * is processed as a whole.
+	 *
+	 * @return true if there are instances pending output
+	 * @throws Exception
+	 *             if the input format has not been set, or the buffered
+	 *             instances cannot be processed
+	 */
+	@Override
+	public boolean batchFinished() throws Exception {
+		if (getInputFormat() == null) {
+			throw new IllegalStateException("No input instance format defined");
+		}
+		if (getInputFormat().numInstances() > 0) {
+			processHead();
+		}
+		m_NewBatch = true;
+		m_FirstBatchDone = true;
+		return numPendingOutput() != 0;
+	}
+
+	/***
+	 * Clusters the buffered head sample, weights it and makes it available for
+	 * output
+	 *
+	 * @throws Exception
+	 *             if the sample cannot be processed
+	 */
+	private void processHead() throws Exception {
+		Instances head = process(new Instances(getInputFormat()));
+		flushInput();
+		if (m_updateCentroids && m_centroids != null && m_updated == null) {
+			startUpdates(head);
+		}
+		for (int i = 0; i < head.numInstances(); i++) {
+			push(head.instance(i), false);
+		}
+	}
+
+	@Override
+	protected void resetModel() {
+		super.resetModel();
+		m_updated = null;
+		m_counts = null;
+		m_variances = null;
+		m_numUpdates = 0;
+	}
+
+	/***
+	 * Starts updating the centroids, taking the count and the variances of
+	 * each centroid from the head sample. Without a head sample, as for a
+	 * loaded model, the centroids are assumed to have seen a head sample each
+	 * and no variance.
+	 * 
+	 * @param head
+	 *            the instances the centroids were fitted on, or null
+	 * @throws Exception
+	 *             if a closest centroid cannot be found
+	 */
+	private void startUpdates(Instances head) throws Exception {
+		int numAttributes = m_attributeOrder.length;
+		int numCentroids = m_centroids.length / numAttributes;
+		m_updated = m_centroids.clone();
+		m_counts = new double[numCentroids];
+		m_variances = new double[m_centroids.length];
+		m_updateRow = new double[numAttributes];
+		m_numUpdates = 0;
+
+		if (head == null) {
+			Arrays.fill(m_counts, Math.max(1.0, (double) m_headSampleSize / numCentroids));
+			return;
+		}
+		for (int i = 0; i < head.numInstances(); i++) {
+			relevanceOf(head.instance(i));
+			int offset = closestCentroid() * numAttributes;
+			scanRow(head.instance(i), m_updateRow);
+			m_counts[closestCentroid()]++;
+			for (int j = 0; j < numAttributes; j++) {
+				double delta = m_updateRow[j] - m_updated[offset + j];
+				if (!Double.isNaN(delta)) {
+					m_variances[offset + j] += delta * delta;
+				}
+			}
+		}
+		for (int c = 0; c < numCentroids; c++) {
+			for (int j = 0; j < numAttributes; j++) {
+				m_variances[c * numAttributes + j] /= Math.max(1.0, m_counts[c]);
+			}
+			m_counts[c] = Math.max(1.0, m_counts[c]);
+		}
+	}
+
+	/***
+	 * Moves the centroid closest to an instance towards it, and publishes the
+	 * centroids every m_updateInterval instances, after a split and merge
+	 * step. To be called right after relevanceOf(instance).
+	 * 
+	 * @param instance
+	 *            the instance, in the input format
+	 * @throws Exception
+	 *             if the search cannot be built on the new centroids
+	 */
+	private void updateCentroids(Instance instance) throws Exception {
+		if (m_updated == null) {
+			startUpdates(null);
+		}
+		int numAttributes = m_attributeOrder.length;
+		int closest = closestCentroid();
+		int offset = closest * numAttributes;
+		scanRow(instance, m_updateRow);
+
+		// Welford's update of the mean and of the variance of each attribute, over a bounded memory
+		double count = m_counts[closest] = Math.min(m_counts[closest] + 1, Math.max(2, m_headSampleSize));
+		for (int j = 0; j < numAttributes; j++) {
+			double delta = m_updateRow[j] - m_updated[offset + j];
+			if (Double.isNaN(delta)) {
+				continue;// a missing value leaves the attribute as it is
+			}
+			m_updated[offset + j] += delta / count;
+			double variance = m_variances[offset + j];
+			m_variances[offset + j] = variance + (delta * (m_updateRow[j] - m_updated[offset + j]) - variance) / count;
+		}
+
+		if (++m_numUpdates >= Math.max(1, m_updateInterval)) {
+			m_numUpdates = 0;
+			mergeClosestCentroids();
+			splitWidestCentroid();
+			setCentroids(m_updated.clone());
+		}
+	}
+
+	/***
+	 * Merges the two closest centroids if each lies within the spread of the
+	 * other, and there are more centroids than the minimum number of clusters
+	 */
+	void mergeClosestCentroids() {
+		int numAttributes = m_attributeOrder.length;
+		int numCentroids = m_counts.length;
+		if (numCentroids <= Math.max(1, m_minNumClusters)) {
+			return;
+		}
+
+		int first = -1, second = -1;
+		double min = Double.POSITIVE_INFINITY;
+		for (int a = 0; a < numCentroids; a++) {
+			for (int b = a + 1; b < numCentroids; b++) {
+				double distance = 0.0;
+				for (int j = 0; j < numAttributes; j++) {
+					double delta = m_updated[a * numAttributes + j] - m_updated[b * numAttributes + j];
+					distance += delta * delta;
+				}
+				if (distance < min) {
+					min = distance;
+					first = a;
+					second = b;
+				}
+			}
+		}
+		if (min >= (spread(first) + spread(second)) / 2) {
+			return;
+		}
+
+		double countA = m_counts[first], countB = m_counts[second], count = countA + countB;
+		for (int j = 0; j < numAttributes; j++) {
+			int a = first * numAttributes + j, b = second * numAttributes + j;
+			double mean = (countA * m_updated[a] + countB * m_updated[b]) / count;
+			double deltaA = m_updated[a] - mean, deltaB = m_updated[b] - mean;
+			m_variances[a] = (countA * (m_variances[a] + deltaA * deltaA) + countB * (m_variances[b] + deltaB * deltaB))
+					/ count;
+			m_updated[a] = mean;
+		}
+		m_counts[first] = count;
+
+		// the last centroid takes the place of the merged one
+		int last = numCentroids - 1;
+		System.arraycopy(m_updated, last * numAttributes, m_updated, second * numAttributes, numAttributes);
+		System.arraycopy(m_variances, last * numAttributes, m_variances, second * numAttributes, numAttributes);
+		m_counts[second] = m_counts[last];
+		m_updated = Arrays.copyOf(m_updated, last * numAttributes);
+		m_variances = Arrays.copyOf(m_variances, last * numAttributes);
+		m_counts = Arrays.copyOf(m_counts, last);
+	}
+
+	/***
+	 * Splits the centroid spread the most in two along its widest attribute,
+	 * if it is spread SPLIT_SPREAD_RATIO times more than the other centroids
+	 * on average, and there are fewer centroids than the maximum number of
+	 * clusters. Each half gets the mean and the variance of a half normal
+	 * distribution along that attribute.
+	 */
+	void splitWidestCentroid() {
+		int numAttributes = m_attributeOrder.length;
+		int numCentroids = m_counts.length;
+		if (numCentroids < 2 || numCentroids >= m_maxNumClusters) {
+			return;
+		}
+
+		int widest = -1;
+		double totalCount = 0.0, totalSpread = 0.0;
+		for (int c = 0; c < numCentroids; c++) {
+			totalCount += m_counts[c];
+			totalSpread += m_counts[c] * spread(c);
+			if (m_counts[c] >= MIN_SPLIT_COUNT && (widest < 0 || spread(c) > spread(widest))) {
+				widest = c;
+			}
+		}
+		if (widest < 0) {
+			return;
+		}
+		double othersSpread = (totalSpread - m_counts[widest] * spread(widest)) / (totalCount - m_counts[widest]);
+		if (spread(widest) <= SPLIT_SPREAD_RATIO * othersSpread) {
+			return;
+		}
+
+		int attribute = 0;
+		for (int j = 1; j < numAttributes; j++) {
+			if (m_variances[widest * numAttributes + j] > m_variances[widest * numAttributes + attribute]) {
+				attribute = j;
+			}
+		}
+
+		m_updated = Arrays.copyOf(m_updated, (numCentroids + 1) * numAttributes);
+		m_variances = Arrays.copyOf(m_variances, (numCentroids + 1) * numAttributes);
+		m_counts = Arrays.copyOf(m_counts, numCentroids + 1);
+		System.arraycopy(m_updated, widest * numAttributes, m_updated, numCentroids * numAttributes, numAttributes);
+		System.arraycopy(m_variances, widest * numAttributes, m_variances, numCentroids * numAttributes,
+				numAttributes);
+		m_counts[widest] /= 2;
+		m_counts[numCentroids] = m_counts[widest];
+
+		double variance = m_variances[widest * numAttributes + attribute];
+		double offset = Math.sqrt(2 / Math.PI * variance);
+		m_updated[widest * numAttributes + attribute] -= offset;
+		m_updated[numCentroids * numAttributes + attribute] += offset;
+		m_variances[widest * numAttributes + attribute] = (1 - 2 / Math.PI) * variance;
+		m_variances[numCentroids * numAttributes + attribute] = (1 - 2 / Math.PI) * variance;
+	}
+
+	/***
+	 * Gets the spread of a centroid
+	 * 
+	 * @param centroid
+	 *            the index of the centroid
+	 * @return the mean squared distance of its instances to it
+	 */
+	private double spread(int centroid) {
+		int numAttributes = m_attributeOrder.length;
+		double spread = 0.0;
+		for (int j = 0; j < numAttributes; j++) {
+			spread += m_variances[centroid * numAttributes + j];
+		}
+		return spread;
+	}
+
+	/***
+	 * Filters a file in two passes. The first pass clusters the head sample,
+	 * unless a centroid model is loaded, and computes the minimum relevance
+	 * over the whole file; the second pass writes every instance, weighted
+	 * with its relevance shifted by that minimum when it is not positive, as
+	 * the batch filter shifts them. With a loaded model the shift of the model
+	 * is kept and the first pass is skipped. Memory use does not depend on the
+	 * size of the file.
+	 * 
+	 * @param input
+	 *            the file to be filtered, in any format Weka reads
+	 * @param output
+	 *            the ARFF file the weighted instances are written to
+	 * @param classIndex
+	 *            the class index as for -c: "first", "last" or an index
+	 *            starting at 1; empty if the data has no class
+	 * @throws Exception
+	 *             if the files cannot be read or written, or the relevances
+	 *             cannot be computed
+	 */
+	public void filterTwoPass(File input, File output, String classIndex) throws Exception {
+		DataSource source = new DataSource(input.getPath());
+		Instances structure = source.getStructure();
+		if (classIndex.length() != 0) {
+			SingleIndex index = new SingleIndex(classIndex);
+			index.setUpper(structure.numAttributes() - 1);
+			structure.setClassIndex(index.getIndex());
+		}
+		setInputFormat(structure);
+		resetModel();
+
+		if (!m_loadModel.isDirectory()) {
+			loadModel(structure);
+		} else {
+			// first pass: cluster the head sample, then take the minimum over all the instances
+			Instances head = new Instances(structure, Math.max(2, m_headSampleSize));
+			double minRelevance = Double.POSITIVE_INFINITY;
+			while (source.hasMoreElements(structure)) {
+				Instance instance = source.nextElement(structure);
+				if (m_centroids != null) {
+					double relevance = relevanceOf(instance);
+					if (relevance < 0) {
+						minRelevance = Math.min(minRelevance, relevance);
+					}
+					continue;
+				}
+				head.add(instance);
+				if (head.numInstances() >= Math.max(2, m_headSampleSize)) {
+					minRelevance = fitHead(head);
+				}
+			}
+			if (m_centroids == null && head.numInstances() > 1) {
+				minRelevance = fitHead(head);
+			}
+			head = null;
+
+			if (minRelevance <= 0) {
+				System.err.println("minRelevance= " + minRelevance);
+				//we shift all relevances above 1.0
+				m_relevanceShift = -minRelevance + 1.0;
+			}
+			if (m_centroids != null && !m_saveModel.isDirectory()) {
+				saveModel(structure);
+			}
+			source.reset();
+			source.getStructure();
+		}
+
+		// second pass: write the weighted instances
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(output)));
+		try {
+			writer.println(getOutputFormat().toString());
+			while (source.hasMoreElements(structure)) {
+				Instance instance = source.nextElement(structure);
+				if (m_centroids != null) {
+					instance.setWeight(relevanceOf(instance) + m_relevanceShift);
+				}
+				writer.println(instance.toString());
+			}
+		} finally {
+			writer.close();
+		}
+
+		m_NewBatch = true;
+		m_FirstBatchDone = true;
+	}
+
+	/***
+	 * Clusters the head sample of the two pass mode
+	 * 
+	 * @param head
+	 *            the instances at the head of the file, emptied afterwards
+	 * @return the minimum negative relevance of the head instances, or
+	 *         positive infinity if none is negative
+	 * @throws Exception
+	 *             if the instances cannot be clustered
+	 */
+	private double fitHead(Instances head) throws Exception {
+		fit(head);
+		double minRelevance = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < head.numInstances(); i++) {
+			double relevance = relevanceOf(head.instance(i));
+			if (relevance < 0) {
+				minRelevance = Math.min(minRelevance, relevance);
+			}
+		}
+		head.delete();
+		return minRelevance;
+	}
+
+	@Override
+	public String getRevision() {
+		return RevisionUtils.extract("$Revision: 1 $");
+	}
+
+	/**
+	 * Main method for running this filter. With <code>-two-pass</code>, the
+	 * file given by <code>-i</code> is filtered in two passes into the file
+	 * given by <code>-o</code>.
+	 *
+	 * @param args
+	 *            should contain arguments to the filter: use -h for help
+	 */
+	public static void main(String[] args) {
+		StreamingRelevanceClusteringClosestCentrHighRel filter = new StreamingRelevanceClusteringClosestCentrHighRel();
+		try {
+			if (!Utils.getFlag("two-pass", args)) {
+				runFilter(filter, args);
+				return;
+			}
+			String input = Utils.getOption('i', args);
+			String output = Utils.getOption('o', args);
+			String classIndex = Utils.getOption('c', args);
+			if (input.length() == 0 || output.length() == 0) {
+				throw new Exception("The two pass mode needs an input file (-i) and an output file (-o)");
+			}
+			filter.setOptions(args);
+			filter.filterTwoPass(new File(input), new File(output), classIndex);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
+}
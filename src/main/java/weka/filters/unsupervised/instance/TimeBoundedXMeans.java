@@ -0,0 +1,98 @@
+/**
+ * XMeans with a wall-clock time budget
+ */
+package weka.filters.unsupervised.instance;
+
+import java.util.Enumeration;
+
+import weka.clusterers.XMeans;
+import weka.core.DistanceFunction;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.SerializedObject;
+import weka.core.neighboursearch.KDTree;
+
+/**
+ * XMeans with a wall-clock time budget. Once the budget is spent, the k-means
+ * runs stop after their current iteration and the improve-structure loop stops
+ * splitting clusters, so the centers found so far are kept as the model.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+class TimeBoundedXMeans extends XMeans {
+
+	/**
+	 * for serialization purposes
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/** the time budget in seconds, 0 for none */
+	protected double m_timeBudget = 0;
+
+	/** when the budget runs out, in System.nanoTime() units */
+	protected transient long m_deadline;
+
+	public void setTimeBudget(double timeBudget) {
+		m_timeBudget = timeBudget;
+	}
+
+	public double getTimeBudget() {
+		return m_timeBudget;
+	}
+
+	/***
+	 * Copies the settings of an XMeans clusterer through its typed accessors;
+	 * the distance function and the KD-tree are deep copies, since building
+	 * the clusterer sets them up on the data
+	 * 
+	 * @param xmeans
+	 *            the clusterer whose settings are copied
+	 * @throws Exception
+	 *             if the settings cannot be copied
+	 */
+	public void copySettings(XMeans xmeans) throws Exception {
+		setMinNumClusters(xmeans.getMinNumClusters());
+		setMaxNumClusters(xmeans.getMaxNumClusters());
+		setMaxIterations(xmeans.getMaxIterations());
+		setMaxKMeans(xmeans.getMaxKMeans());
+		setMaxKMeansForChildren(xmeans.getMaxKMeansForChildren());
+		setCutOffFactor(xmeans.getCutOffFactor());
+		setSeed(xmeans.getSeed());
+		setDistanceF((DistanceFunction) new SerializedObject(xmeans.getDistanceF()).getObject());
+		setUseKDTree(xmeans.getUseKDTree());
+		setKDTree((KDTree) new SerializedObject(xmeans.getKDTree()).getObject());
+	}
+
+	// XMeans returns its options as a raw enumeration
+	@Override
+	@SuppressWarnings("unchecked")
+	public Enumeration<Option> listOptions() {
+		return super.listOptions();
+	}
+
+	@Override
+	public void buildClusterer(Instances data) throws Exception {
+		m_deadline = System.nanoTime() + (long) (m_timeBudget * 1e9);
+		super.buildClusterer(data);
+	}
+
+	/***
+	 * Tells whether the time budget has been spent
+	 * 
+	 * @return true if there is a budget and it is exhausted
+	 */
+	protected boolean budgetExhausted() {
+		return m_timeBudget > 0 && System.nanoTime() - m_deadline >= 0;
+	}
+
+	@Override
+	protected boolean stopIteration(int iterationCount, int maxIterations) {
+		return budgetExhausted() || super.stopIteration(iterationCount, maxIterations);
+	}
+
+	@Override
+	protected boolean stopKMeansIteration(int iterationCount, int maxIterations) {
+		// XMeans needs the assignments of at least one k-means iteration
+		return (iterationCount > 0 && budgetExhausted()) || super.stopKMeansIteration(iterationCount, maxIterations);
+	}
+}
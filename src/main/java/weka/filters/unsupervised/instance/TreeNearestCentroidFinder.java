@@ -0,0 +1,181 @@
+/**
+ * Base class of the closest centroid searches through a tree over the centroids
+ */
+package weka.filters.unsupervised.instance;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Base class for the searches through a binary tree built over the centroids.
+ * Every node covers a range of the centroids, reordered so that the centroids
+ * of a leaf are stored next to each other; the leaves are scanned with the
+ * partial distance search.
+ * 
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+abstract class TreeNearestCentroidFinder extends NearestCentroidFinder {
+
+	// maximum number of centroids in a leaf
+	final static int LEAF_SIZE = 8;
+
+	// relative slack on the pruning bounds, guards against rounding errors
+	final static double BOUND_SLACK = 1e-12;
+
+	/** upper limit for the number of nodes */
+	protected final int m_maxNodes;
+
+	/** the centroids, in tree order */
+	protected final int[] m_order;
+
+	/** the first centroid of every node, within m_order */
+	protected final int[] m_from;
+
+	/** the end of the centroids of every node, within m_order */
+	protected final int[] m_to;
+
+	/** the left child of every node, -1 for leaves */
+	protected final int[] m_left;
+
+	/** the right child of every node, -1 for leaves */
+	protected final int[] m_right;
+
+	/** the centroids in tree order, packed one after another */
+	protected double[] m_leafCentroids;
+
+	protected int m_numNodes = 0;
+
+	/**
+	 * The state of a query, kept apart from the tree so that the tree can be
+	 * shared between threads
+	 */
+	protected static class Query {
+
+		/** the row searched for */
+		protected double[] m_rows;
+
+		/** the position of the row within m_rows */
+		protected int m_rowOffset;
+
+		/** the squared distance to the best centroid so far */
+		protected double m_best;
+
+		/** the distance to the best centroid so far */
+		protected double m_bestDistance;
+
+		/** the position of the best centroid so far, within m_order */
+		protected int m_bestPosition;
+	}
+
+	protected TreeNearestCentroidFinder(double[] centroids, int numAttributes, DistanceKernel kernel) {
+		super(centroids, numAttributes, kernel);
+		m_maxNodes = 2 * m_numCentroids;
+		m_order = new int[m_numCentroids];
+		for (int i = 0; i < m_numCentroids; i++) {
+			m_order[i] = i;
+		}
+		m_from = new int[m_maxNodes];
+		m_to = new int[m_maxNodes];
+		m_left = new int[m_maxNodes];
+		m_right = new int[m_maxNodes];
+	}
+
+	/***
+	 * Searches a node for a centroid closer than the best one found so far
+	 */
+	protected abstract void search(int node, Query query);
+
+	@Override
+	void closest(double[] rows, int firstRow, int numRows, int[] closest, double[] squaredDistances) {
+		Query query = new Query();
+		query.m_rows = rows;
+		for (int r = 0; r < numRows; r++) {
+			query.m_rowOffset = (firstRow + r) * m_numAttributes;
+			query.m_best = Double.POSITIVE_INFINITY;
+			query.m_bestDistance = Double.POSITIVE_INFINITY;
+			query.m_bestPosition = 0;
+			search(0, query);
+			if (query.m_best == Double.POSITIVE_INFINITY) {
+				// no centroid compares as closer, the row has missing values
+				query.m_best = m_kernel.squaredDistance(rows, query.m_rowOffset, m_leafCentroids, 0,
+						m_numAttributes, Double.POSITIVE_INFINITY);
+			}
+			closest[r] = m_order[query.m_bestPosition];
+			squaredDistances[r] = query.m_best;
+		}
+	}
+
+	protected int newNode(int from, int to) {
+		int node = m_numNodes++;
+		m_from[node] = from;
+		m_to[node] = to;
+		m_left[node] = -1;
+		m_right[node] = -1;
+		return node;
+	}
+
+	protected void scanLeaf(int node, Query query) {
+		for (int i = m_from[node]; i < m_to[node]; i++) {
+			double distance = m_kernel.squaredDistance(query.m_rows, query.m_rowOffset, m_leafCentroids,
+					i * m_numAttributes, m_numAttributes, query.m_best);
+			if (distance < query.m_best) {
+				query.m_best = distance;
+				query.m_bestDistance = Math.sqrt(distance);
+				query.m_bestPosition = i;
+			}
+		}
+	}
+
+	/***
+	 * Copies the centroids in tree order, once the tree is built
+	 */
+	protected void storeLeafCentroids() {
+		m_leafCentroids = new double[m_centroids.length];
+		for (int i = 0; i < m_numCentroids; i++) {
+			System.arraycopy(m_centroids, m_order[i] * m_numAttributes, m_leafCentroids, i * m_numAttributes,
+					m_numAttributes);
+		}
+	}
+
+	/***
+	 * Finds the attribute with the largest spread over a range of centroids
+	 */
+	protected int widestAttribute(int from, int to) {
+		int widest = 0;
+		double maxSpread = -1;
+		for (int a = 0; a < m_numAttributes; a++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				double value = m_centroids[m_order[i] * m_numAttributes + a];
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			if (max - min > maxSpread) {
+				maxSpread = max - min;
+				widest = a;
+			}
+		}
+		return widest;
+	}
+
+	/***
+	 * Sorts a range of centroids by the value of an attribute
+	 */
+	protected void sortByAttribute(int from, int to, final int attribute) {
+		Integer[] range = new Integer[to - from];
+		for (int i = from; i < to; i++) {
+			range[i - from] = m_order[i];
+		}
+		Arrays.sort(range, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(m_centroids[a * m_numAttributes + attribute],
+						m_centroids[b * m_numAttributes + attribute]);
+			}
+		});
+		for (int i = from; i < to; i++) {
+			m_order[i] = range[i - from];
+		}
+	}
+}
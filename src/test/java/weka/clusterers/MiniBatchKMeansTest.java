@@ -0,0 +1,121 @@
+/**
+ * Tests of the mini-batch k-means clusterer
+ */
+package weka.clusterers;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Tests the mini-batch k-means clusterer on well separated clusters.
+ * <p/>
+ * Run from the command line with:
+ * <p/>
+ * java weka.clusterers.MiniBatchKMeansTest
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class MiniBatchKMeansTest extends TestCase {
+
+	/** the clusters of the data, far apart from each other */
+	final static int NUM_CLUSTERS = 3;
+
+	public MiniBatchKMeansTest(String name) {
+		super(name);
+	}
+
+	/***
+	 * Generates data around well separated centers
+	 *
+	 * @param numInstances
+	 *            the number of instances; instance i belongs to cluster
+	 *            i % NUM_CLUSTERS
+	 * @return the data
+	 */
+	static Instances data(int numInstances) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("x"));
+		attributes.add(new Attribute("y"));
+		Instances data = new Instances("blobs", attributes, numInstances);
+		Random random = new Random(1);
+		for (int i = 0; i < numInstances; i++) {
+			int cluster = i % NUM_CLUSTERS;
+			data.add(new DenseInstance(1.0, new double[] { cluster * 100 + random.nextGaussian(),
+					(cluster % 2) * 100 + random.nextGaussian() }));
+		}
+		return data;
+	}
+
+	public void testRecoversSeparatedClusters() throws Exception {
+		Instances data = data(3000);
+		MiniBatchKMeans clusterer = new MiniBatchKMeans();
+		clusterer.setNumClusters(NUM_CLUSTERS);
+		clusterer.setBatchSize(100);
+		clusterer.buildClusterer(data);
+
+		assertEquals("number of clusters", NUM_CLUSTERS, clusterer.numberOfClusters());
+		assertEquals("number of centroids", NUM_CLUSTERS, clusterer.getClusterCentroids().numInstances());
+		int[] assigned = new int[NUM_CLUSTERS];
+		for (int c = 0; c < NUM_CLUSTERS; c++) {
+			assigned[c] = clusterer.clusterInstance(data.instance(c));
+		}
+		for (int i = 0; i < data.numInstances(); i++) {
+			assertEquals("cluster of instance " + i, assigned[i % NUM_CLUSTERS],
+					clusterer.clusterInstance(data.instance(i)));
+		}
+		for (int c = 1; c < NUM_CLUSTERS; c++) {
+			for (int d = 0; d < c; d++) {
+				assertTrue("clusters " + d + " and " + c + " share a center", assigned[c] != assigned[d]);
+			}
+		}
+	}
+
+	public void testToleranceCoversTheWholeBatch() throws Exception {
+		Instances data = data(3000);
+		MiniBatchKMeans clusterer = new MiniBatchKMeans();
+		clusterer.setNumClusters(NUM_CLUSTERS);
+		clusterer.setBatchSize(1000);
+		clusterer.setTolerance(1e-4);
+		clusterer.buildClusterer(data);
+
+		// the centers drift by a whole batch worth of updates, while any single
+		// update moves them by a small fraction of that; measured update by
+		// update, the movement falls below the tolerance after 3 iterations
+		assertTrue("stopped after " + clusterer.m_iterations + " iterations", clusterer.m_iterations > 5);
+		assertTrue("ran out of iterations", clusterer.m_iterations < clusterer.getMaxIterations());
+	}
+
+	public void testFewerInstancesThanClusters() throws Exception {
+		Instances data = data(5);
+		MiniBatchKMeans clusterer = new MiniBatchKMeans();
+		clusterer.setNumClusters(10);
+		clusterer.buildClusterer(data);
+		assertEquals("number of clusters", 5, clusterer.numberOfClusters());
+	}
+
+	public void testSameSeedSameCenters() throws Exception {
+		Instances data = data(1000);
+		MiniBatchKMeans first = new MiniBatchKMeans();
+		first.setNumClusters(NUM_CLUSTERS);
+		first.buildClusterer(data);
+		MiniBatchKMeans second = new MiniBatchKMeans();
+		second.setNumClusters(NUM_CLUSTERS);
+		second.buildClusterer(data);
+		assertEquals("centroids", first.getClusterCentroids().toString(), second.getClusterCentroids().toString());
+	}
+
+	public static Test suite() {
+		return new TestSuite(MiniBatchKMeansTest.class);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Tests of the cache of cluster centers
+ */
+package weka.filters.unsupervised.instance;
+
+import java.util.ArrayList;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Tests the keys of the centroid cache and the eviction of its entries.
+ * <p/>
+ * Run from the command line with:
+ * <p/>
+ * java weka.filters.unsupervised.instance.CentroidCacheTest
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class CentroidCacheTest extends TestCase {
+
+	public CentroidCacheTest(String name) {
+		super(name);
+	}
+
+	/***
+	 * Builds a set of one dimensional centers
+	 *
+	 * @param numCenters
+	 *            the number of centers
+	 * @return the centers, 0 to numCenters - 1
+	 */
+	static Instances centers(int numCenters) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("x"));
+		Instances centers = new Instances("centers", attributes, numCenters);
+		for (int i = 0; i < numCenters; i++) {
+			centers.add(new DenseInstance(1.0, new double[] { i }));
+		}
+		return centers;
+	}
+
+	/***
+	 * Estimates the memory the cache charges for a set of one dimensional
+	 * centers
+	 *
+	 * @param numCenters
+	 *            the number of centers
+	 * @return the size in bytes
+	 */
+	static long sizeOf(int numCenters) {
+		return CentroidCache.ENTRY_OVERHEAD + 8L * numCenters * (1 + 4);
+	}
+
+	public void testFingerprint() {
+		Instances data = centers(10);
+		CentroidCache.Key key = CentroidCache.fingerprint(data, "settings");
+		assertEquals("same data, same settings", key, CentroidCache.fingerprint(new Instances(data), "settings"));
+		assertFalse("other settings", key.equals(CentroidCache.fingerprint(data, "other settings")));
+
+		Instances changed = new Instances(data);
+		changed.instance(3).setValue(0, 3.5);
+		assertFalse("other values", key.equals(CentroidCache.fingerprint(changed, "settings")));
+
+		Instances reweighted = new Instances(data);
+		reweighted.instance(3).setWeight(2);
+		assertFalse("other weights", key.equals(CentroidCache.fingerprint(reweighted, "settings")));
+	}
+
+	public void testLeastRecentlyUsedEvictedFirst() {
+		CentroidCache cache = new CentroidCache();
+		long budget = 2 * sizeOf(10);
+		Instances centers = centers(10);
+		CentroidCache.Key first = CentroidCache.fingerprint(centers, "first");
+		CentroidCache.Key second = CentroidCache.fingerprint(centers, "second");
+		CentroidCache.Key third = CentroidCache.fingerprint(centers, "third");
+
+		cache.put(first, centers, budget);
+		cache.put(second, centers, budget);
+		assertNotNull("first entry", cache.get(first));
+		cache.put(third, centers, budget);
+
+		assertNotNull("first entry, used lately", cache.get(first));
+		assertNull("second entry, least recently used", cache.get(second));
+		assertNotNull("third entry", cache.get(third));
+	}
+
+	public void testEntriesLargerThanTheBudgetSkipped() {
+		CentroidCache cache = new CentroidCache();
+		Instances centers = centers(10);
+		CentroidCache.Key key = CentroidCache.fingerprint(centers, "settings");
+		cache.put(key, centers, sizeOf(10) - 1);
+		assertNull("entry over the budget", cache.get(key));
+	}
+
+	public void testBudgetsChargedPerEntry() {
+		CentroidCache cache = new CentroidCache();
+		Instances large = centers(100);
+		CentroidCache.Key largeKey = CentroidCache.fingerprint(large, "large");
+		cache.put(largeKey, large, 1 << 20);
+
+		// a filter with a small budget fits three entries of its own
+		Instances small = centers(10);
+		long smallBudget = 3 * sizeOf(10) + 1;
+		for (int i = 0; i < 10; i++) {
+			cache.put(CentroidCache.fingerprint(small, "small " + i), small, smallBudget);
+		}
+
+		assertNotNull("entry of the larger budget", cache.get(largeKey));
+		for (int i = 0; i < 10; i++) {
+			CentroidCache.Key key = CentroidCache.fingerprint(small, "small " + i);
+			if (i < 7) {
+				assertNull("evicted entry " + i, cache.get(key));
+			} else {
+				assertNotNull("recent entry " + i, cache.get(key));
+			}
+		}
+	}
+
+	public void testLargerBudgetsCountSmallerOnes() {
+		CentroidCache cache = new CentroidCache();
+		Instances centers = centers(10);
+		long smallBudget = 2 * sizeOf(10);
+		long largeBudget = 3 * sizeOf(10);
+		CentroidCache.Key small = CentroidCache.fingerprint(centers, "small");
+		cache.put(small, centers, smallBudget);
+		for (int i = 0; i < 3; i++) {
+			cache.put(CentroidCache.fingerprint(centers, "large " + i), centers, largeBudget);
+		}
+
+		// four entries exceed the larger budget; the entries charged to it are
+		// the ones evicted, least recently used first
+		assertNotNull("entry of the smaller budget", cache.get(small));
+		assertNull("least recently used entry", cache.get(CentroidCache.fingerprint(centers, "large 0")));
+		for (int i = 1; i < 3; i++) {
+			assertNotNull("entry " + i, cache.get(CentroidCache.fingerprint(centers, "large " + i)));
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(CentroidCacheTest.class);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Tests of the binary file format of the centroid model
+ */
+package weka.filters.unsupervised.instance;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.filters.unsupervised.instance.RelevanceClusteringClosestCentrHighRel.ClosestCentroidImpact;
+import weka.filters.unsupervised.instance.RelevanceClusteringClosestCentrHighRel.RelevanceFunctionModifier;
+
+/**
+ * Tests saving and loading centroid models, on their own and through the
+ * relevance filter.
+ * <p/>
+ * Run from the command line with:
+ * <p/>
+ * java weka.filters.unsupervised.instance.CentroidModelTest
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class CentroidModelTest extends TestCase {
+
+	/** the model file, deleted after each test */
+	protected File m_file;
+
+	public CentroidModelTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		m_file = File.createTempFile("centroids", ".rccm");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		m_file.delete();
+		super.tearDown();
+	}
+
+	public void testRoundTrip() throws Exception {
+		Instances data = RelevanceClusteringClosestCentrHighRelTest.data(10, 1);
+		double[] centroids = { 1.5, -2.0, 0.0, 3.25, 4.0, 5.0, -6.5, 7.0 };
+		new CentroidModel(CentroidModel.attributeNames(data), CentroidModel.attributeTypes(data),
+				new int[] { 2, 0, 3, 1 }, centroids, ClosestCentroidImpact.ClosestCentroidLowRelevance,
+				RelevanceFunctionModifier.LOG, 2.5).save(m_file);
+
+		CentroidModel model = CentroidModel.load(m_file);
+		assertTrue("attribute names", Arrays.equals(new String[] { "a0", "a1", "a2", "a3" }, model.m_attributeNames));
+		assertTrue("attribute types", Arrays.equals(new int[] { Attribute.NUMERIC, Attribute.NUMERIC,
+				Attribute.NUMERIC, Attribute.NUMERIC }, model.m_attributeTypes));
+		assertTrue("attribute order", Arrays.equals(new int[] { 2, 0, 3, 1 }, model.m_attributeOrder));
+		assertTrue("centroids", Arrays.equals(centroids, model.m_centroids));
+		assertEquals("closest centroid impact", ClosestCentroidImpact.ClosestCentroidLowRelevance,
+				model.m_closestCentroidImpact);
+		assertEquals("relevance function modifier", RelevanceFunctionModifier.LOG,
+				model.m_relevanceFunctionModifier);
+		assertEquals("relevance shift", 2.5, model.m_relevanceShift, 0.0);
+
+		model.checkLayout(data);
+		model.checkSettings(ClosestCentroidImpact.ClosestCentroidLowRelevance, RelevanceFunctionModifier.LOG);
+	}
+
+	public void testSettingsMismatch() throws Exception {
+		Instances data = RelevanceClusteringClosestCentrHighRelTest.data(10, 1);
+		new CentroidModel(CentroidModel.attributeNames(data), CentroidModel.attributeTypes(data),
+				new int[] { 0, 1, 2, 3 }, new double[8], ClosestCentroidImpact.ClosestCentroidHighRelevance,
+				RelevanceFunctionModifier.IDENTICAL, 0).save(m_file);
+		CentroidModel model = CentroidModel.load(m_file);
+
+		try {
+			model.checkSettings(ClosestCentroidImpact.ClosestCentroidHighRelevance, RelevanceFunctionModifier.EXP);
+			fail("A model saved with other settings should be rejected");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public void testTruncatedFile() throws Exception {
+		Instances data = RelevanceClusteringClosestCentrHighRelTest.data(10, 1);
+		new CentroidModel(CentroidModel.attributeNames(data), CentroidModel.attributeTypes(data),
+				new int[] { 0, 1, 2, 3 }, new double[8], ClosestCentroidImpact.ClosestCentroidHighRelevance,
+				RelevanceFunctionModifier.IDENTICAL, 0).save(m_file);
+		RandomAccessFile file = new RandomAccessFile(m_file, "rw");
+		try {
+			file.setLength(file.length() - 8);
+		} finally {
+			file.close();
+		}
+
+		try {
+			CentroidModel.load(m_file);
+			fail("A truncated model should be rejected");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public void testLayoutMismatch() throws Exception {
+		Instances data = RelevanceClusteringClosestCentrHighRelTest.data(10, 1);
+		new CentroidModel(CentroidModel.attributeNames(data), CentroidModel.attributeTypes(data),
+				new int[] { 0, 1, 2, 3 }, new double[8], ClosestCentroidImpact.ClosestCentroidHighRelevance,
+				RelevanceFunctionModifier.IDENTICAL, 0).save(m_file);
+		CentroidModel model = CentroidModel.load(m_file);
+
+		// same names, but a3 is nominal
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		for (int j = 0; j < 3; j++) {
+			attributes.add(new Attribute("a" + j));
+		}
+		attributes.add(new Attribute("a3", Arrays.asList("low", "high")));
+		attributes.add(new Attribute("class", Arrays.asList("yes", "no")));
+		Instances other = new Instances("blobs", attributes, 0);
+		other.setClassIndex(other.numAttributes() - 1);
+		try {
+			model.checkLayout(other);
+			fail("Data with a nominal attribute in place of a numeric one should be rejected");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public void testFilterRoundTrip() throws Exception {
+		Instances data = RelevanceClusteringClosestCentrHighRelTest.data(600, 2);
+
+		RelevanceClusteringClosestCentrHighRel saving = new RelevanceClusteringClosestCentrHighRel();
+		saving.setNumExecutionSlots(1);
+		saving.setSaveModel(m_file);
+		double[] expected = RelevanceClusteringClosestCentrHighRelTest.weights(saving, data);
+
+		RelevanceClusteringClosestCentrHighRel loading = new RelevanceClusteringClosestCentrHighRel();
+		loading.setNumExecutionSlots(1);
+		loading.setLoadModel(m_file);
+		double[] actual = RelevanceClusteringClosestCentrHighRelTest.weights(loading, data);
+
+		RelevanceClusteringClosestCentrHighRelTest.assertWeights(expected, actual, 1e-12);
+	}
+
+	public void testFilterRejectsOtherSettings() throws Exception {
+		Instances data = RelevanceClusteringClosestCentrHighRelTest.data(600, 2);
+
+		RelevanceClusteringClosestCentrHighRel saving = new RelevanceClusteringClosestCentrHighRel();
+		saving.setNumExecutionSlots(1);
+		saving.setSaveModel(m_file);
+		RelevanceClusteringClosestCentrHighRelTest.weights(saving, data);
+
+		RelevanceClusteringClosestCentrHighRel loading = new RelevanceClusteringClosestCentrHighRel();
+		loading.setNumExecutionSlots(1);
+		loading.setLoadModel(m_file);
+		loading.setRelevanceFunctionModifier(new SelectedTag(RelevanceFunctionModifier.LOG.ordinal(),
+				RelevanceClusteringClosestCentrHighRel.FUNCTION_MODIFIERS_SELECTION));
+		try {
+			RelevanceClusteringClosestCentrHighRelTest.weights(loading, data);
+			fail("A model saved with other settings should be rejected");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(CentroidModelTest.class);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * Tests of the closest centroid searches
+ */
+package weka.filters.unsupervised.instance;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Tests the closest centroid searches against the linear one, on random
+ * centroids and on centroids with many duplicates. Ties may be broken
+ * differently, so a search is only required to find a centroid at the closest
+ * distance.
+ * <p/>
+ * Run from the command line with:
+ * <p/>
+ * java weka.filters.unsupervised.instance.NearestCentroidFinderTest
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class NearestCentroidFinderTest extends TestCase {
+
+	/** number of attributes of the centroids and of the rows */
+	final static int NUM_ATTRIBUTES = 8;
+
+	/** more centroids than the filter searches linearly on Auto */
+	final static int NUM_CENTROIDS = 100;
+
+	final static int NUM_ROWS = 1000;
+
+	public NearestCentroidFinderTest(String name) {
+		super(name);
+	}
+
+	/***
+	 * Draws centroids at random
+	 *
+	 * @param random
+	 *            the random number generator
+	 * @param numDistinct
+	 *            the number of distinct centroids, the others repeating them
+	 * @return the centroids, packed row by row
+	 */
+	static double[] centroids(Random random, int numDistinct) {
+		double[] centroids = new double[NUM_CENTROIDS * NUM_ATTRIBUTES];
+		for (int c = 0; c < NUM_CENTROIDS; c++) {
+			if (c < numDistinct) {
+				for (int j = 0; j < NUM_ATTRIBUTES; j++) {
+					centroids[c * NUM_ATTRIBUTES + j] = random.nextGaussian() * 3;
+				}
+			} else {
+				System.arraycopy(centroids, random.nextInt(numDistinct) * NUM_ATTRIBUTES, centroids,
+						c * NUM_ATTRIBUTES, NUM_ATTRIBUTES);
+			}
+		}
+		return centroids;
+	}
+
+	/***
+	 * Draws rows around the centroids; some rows fall on a centroid and most
+	 * values of the others are zero, as in sparse data
+	 *
+	 * @param random
+	 *            the random number generator
+	 * @param centroids
+	 *            the centroids, packed row by row
+	 * @return the rows, packed row by row
+	 */
+	static double[] rows(Random random, double[] centroids) {
+		double[] rows = new double[NUM_ROWS * NUM_ATTRIBUTES];
+		for (int i = 0; i < NUM_ROWS; i++) {
+			int c = random.nextInt(NUM_CENTROIDS);
+			for (int j = 0; j < NUM_ATTRIBUTES; j++) {
+				double value = centroids[c * NUM_ATTRIBUTES + j];
+				if (i % 10 == 0) {
+					rows[i * NUM_ATTRIBUTES + j] = value;
+				} else if (random.nextInt(3) == 0) {
+					rows[i * NUM_ATTRIBUTES + j] = value + random.nextGaussian();
+				}
+			}
+		}
+		return rows;
+	}
+
+	/***
+	 * Computes the squared distance between a row and a centroid
+	 *
+	 * @param rows
+	 *            the rows, packed row by row
+	 * @param row
+	 *            the index of the row
+	 * @param centroids
+	 *            the centroids, packed row by row
+	 * @param centroid
+	 *            the index of the centroid
+	 * @return the squared distance
+	 */
+	static double squaredDistance(double[] rows, int row, double[] centroids, int centroid) {
+		double distance = 0;
+		for (int j = 0; j < NUM_ATTRIBUTES; j++) {
+			double diff = rows[row * NUM_ATTRIBUTES + j] - centroids[centroid * NUM_ATTRIBUTES + j];
+			distance += diff * diff;
+		}
+		return distance;
+	}
+
+	/***
+	 * Checks the closest centroids found by a search against the linear one
+	 *
+	 * @param name
+	 *            the name of the search, for the messages
+	 * @param rows
+	 *            the rows searched
+	 * @param centroids
+	 *            the centroids
+	 * @param closest
+	 *            the closest centroid found for each row
+	 * @param squaredDistances
+	 *            the squared distance found for each row
+	 * @param tolerance
+	 *            the relative tolerance on the distances
+	 */
+	static void check(String name, double[] rows, double[] centroids, int[] closest, double[] squaredDistances,
+			double tolerance) {
+		NearestCentroidFinder linear = new LinearNearestCentroidFinder(centroids, NUM_ATTRIBUTES,
+				RelevanceClusteringClosestCentrHighRel.DISTANCE_KERNEL);
+		int[] expectedClosest = new int[NUM_ROWS];
+		double[] expected = new double[NUM_ROWS];
+		linear.closest(rows, 0, NUM_ROWS, expectedClosest, expected);
+
+		for (int i = 0; i < NUM_ROWS; i++) {
+			double slack = tolerance * (1 + expected[i]);
+			assertEquals(name + ": squared distance of row " + i, expected[i], squaredDistances[i], slack);
+			assertEquals(name + ": distance to the centroid found for row " + i, expected[i],
+					squaredDistance(rows, i, centroids, closest[i]), slack);
+		}
+	}
+
+	/***
+	 * Checks every double precision search on some centroids
+	 *
+	 * @param centroids
+	 *            the centroids, packed row by row
+	 * @param rows
+	 *            the rows searched, packed row by row
+	 */
+	static void checkFinders(double[] centroids, double[] rows) {
+		DistanceKernel kernel = RelevanceClusteringClosestCentrHighRel.DISTANCE_KERNEL;
+		NearestCentroidFinder[] finders = { new BlockedNearestCentroidFinder(centroids, NUM_ATTRIBUTES, kernel),
+				new PrunedNearestCentroidFinder(centroids, NUM_ATTRIBUTES, kernel),
+				new KDTreeNearestCentroidFinder(centroids, NUM_ATTRIBUTES, kernel),
+				new BallTreeNearestCentroidFinder(centroids, NUM_ATTRIBUTES, kernel), };
+		for (NearestCentroidFinder finder : finders) {
+			int[] closest = new int[NUM_ROWS];
+			double[] squaredDistances = new double[NUM_ROWS];
+			// in batches, as the filter searches them
+			for (int start = 0; start < NUM_ROWS; start += 256) {
+				int numRows = Math.min(256, NUM_ROWS - start);
+				int[] batchClosest = new int[numRows];
+				double[] batchDistances = new double[numRows];
+				finder.closest(rows, start, numRows, batchClosest, batchDistances);
+				System.arraycopy(batchClosest, 0, closest, start, numRows);
+				System.arraycopy(batchDistances, 0, squaredDistances, start, numRows);
+			}
+			check(finder.getClass().getSimpleName(), rows, centroids, closest, squaredDistances, 1e-9);
+		}
+	}
+
+	/***
+	 * Checks the single precision searches on some centroids
+	 *
+	 * @param centroids
+	 *            the centroids, packed row by row
+	 * @param rows
+	 *            the rows searched, packed row by row
+	 */
+	static void checkFloatSearches(double[] centroids, double[] rows) {
+		DistanceKernel kernel = RelevanceClusteringClosestCentrHighRel.DISTANCE_KERNEL;
+		FloatNearestCentroidSearch[] searches = {
+				new LinearNearestCentroidFinder(centroids, NUM_ATTRIBUTES, kernel, true),
+				new PrunedNearestCentroidFinder(centroids, NUM_ATTRIBUTES, kernel, true), };
+		float[] floatRows = NearestCentroidFinder.toFloat(rows);
+		for (FloatNearestCentroidSearch search : searches) {
+			int[] closest = new int[NUM_ROWS];
+			double[] squaredDistances = new double[NUM_ROWS];
+			search.closest(floatRows, 0, NUM_ROWS, closest, squaredDistances);
+			check(search.getClass().getSimpleName() + " (single precision)", rows, centroids, closest,
+					squaredDistances, 1e-4);
+		}
+	}
+
+	/***
+	 * Checks the search through the stored values of sparse instances
+	 *
+	 * @param centroids
+	 *            the centroids, packed row by row
+	 * @param rows
+	 *            the rows searched, packed row by row
+	 */
+	static void checkSparseSearch(double[] centroids, double[] rows) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		for (int j = 0; j < NUM_ATTRIBUTES; j++) {
+			attributes.add(new Attribute("a" + j));
+		}
+		Instances instances = new Instances("rows", attributes, NUM_ROWS);
+		for (int i = 0; i < NUM_ROWS; i++) {
+			double[] values = new double[NUM_ATTRIBUTES];
+			System.arraycopy(rows, i * NUM_ATTRIBUTES, values, 0, NUM_ATTRIBUTES);
+			instances.add(new SparseInstance(new DenseInstance(1.0, values)));
+		}
+		int[] order = new int[NUM_ATTRIBUTES];
+		for (int j = 0; j < NUM_ATTRIBUTES; j++) {
+			order[j] = j;
+		}
+
+		SparseNearestCentroidSearch search = new SparseNearestCentroidSearch(centroids, NUM_ATTRIBUTES);
+		int[] closest = new int[NUM_ROWS];
+		double[] squaredDistances = new double[NUM_ROWS];
+		search.closest(instances, 0, NUM_ROWS, RelevanceClusteringClosestCentrHighRel.scanPositions(order,
+				NUM_ATTRIBUTES), closest, squaredDistances);
+		check("SparseNearestCentroidSearch", rows, centroids, closest, squaredDistances, 1e-9);
+	}
+
+	public void testRandomCentroids() {
+		Random random = new Random(1);
+		double[] centroids = centroids(random, NUM_CENTROIDS);
+		double[] rows = rows(random, centroids);
+		checkFinders(centroids, rows);
+		checkFloatSearches(centroids, rows);
+		checkSparseSearch(centroids, rows);
+	}
+
+	public void testDuplicateCentroids() {
+		Random random = new Random(2);
+		double[] centroids = centroids(random, 5);
+		double[] rows = rows(random, centroids);
+		checkFinders(centroids, rows);
+		checkFloatSearches(centroids, rows);
+		checkSparseSearch(centroids, rows);
+	}
+
+	public static Test suite() {
+		return new TestSuite(NearestCentroidFinderTest.class);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -0,0 +1,324 @@
+/**
+ * Tests of the relevance filter
+ */
+package weka.filters.unsupervised.instance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.filters.Filter;
+
+/**
+ * Tests the relevance filter on data drawn around a few centers.
+ * <p/>
+ * Run from the command line with:
+ * <p/>
+ * java weka.filters.unsupervised.instance.RelevanceClusteringClosestCentrHighRelTest
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class RelevanceClusteringClosestCentrHighRelTest extends TestCase {
+
+	public RelevanceClusteringClosestCentrHighRelTest(String name) {
+		super(name);
+	}
+
+	/***
+	 * Generates data around a few centers, with a nominal class
+	 *
+	 * @param numInstances
+	 *            the number of instances
+	 * @param seed
+	 *            the seed of the random number generator
+	 * @return the data, class last
+	 */
+	static Instances data(int numInstances, int seed) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		for (int j = 0; j < 4; j++) {
+			attributes.add(new Attribute("a" + j));
+		}
+		attributes.add(new Attribute("class", Arrays.asList("yes", "no")));
+		Instances data = new Instances("blobs", attributes, numInstances);
+		data.setClassIndex(data.numAttributes() - 1);
+
+		Random random = new Random(seed);
+		for (int i = 0; i < numInstances; i++) {
+			int center = random.nextInt(3);
+			double[] values = new double[data.numAttributes()];
+			for (int j = 0; j < 4; j++) {
+				values[j] = center * 5 + random.nextGaussian();
+			}
+			values[4] = center == 0 ? 0 : 1;
+			data.add(new DenseInstance(1.0, values));
+		}
+		return data;
+	}
+
+	/***
+	 * Runs a filter over some data, as a single batch
+	 *
+	 * @param filter
+	 *            the filter, set up
+	 * @param data
+	 *            the data
+	 * @return the weight the filter gives to each instance
+	 * @throws Exception
+	 *             if the data cannot be filtered
+	 */
+	static double[] weights(RelevanceClusteringClosestCentrHighRel filter, Instances data) throws Exception {
+		filter.setInputFormat(data);
+		return weights(Filter.useFilter(data, filter));
+	}
+
+	/***
+	 * Gets the weights of some instances
+	 *
+	 * @param instances
+	 *            the instances
+	 * @return the weight of each instance
+	 */
+	static double[] weights(Instances instances) {
+		double[] weights = new double[instances.numInstances()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = instances.instance(i).weight();
+		}
+		return weights;
+	}
+
+	/***
+	 * Runs a filter over a batch of data after the first one
+	 *
+	 * @param filter
+	 *            the filter, which has processed its first batch
+	 * @param data
+	 *            the data of the batch, in the input format of the filter
+	 * @return the weight the filter gives to each instance of the batch
+	 * @throws Exception
+	 *             if the data cannot be filtered
+	 */
+	static double[] nextBatch(Filter filter, Instances data) throws Exception {
+		for (int i = 0; i < data.numInstances(); i++) {
+			filter.input(data.instance(i));
+		}
+		filter.batchFinished();
+		double[] weights = new double[filter.numPendingOutput()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = filter.output().weight();
+		}
+		return weights;
+	}
+
+	/***
+	 * Moves some data away from where it was drawn
+	 *
+	 * @param data
+	 *            the data, modified
+	 * @param offset
+	 *            added to every attribute but the class
+	 * @return the data
+	 */
+	static Instances shift(Instances data, double offset) {
+		for (int i = 0; i < data.numInstances(); i++) {
+			for (int j = 0; j < data.classIndex(); j++) {
+				data.instance(i).setValue(j, data.instance(i).value(j) + offset);
+			}
+		}
+		return data;
+	}
+
+	/***
+	 * Checks that two sets of weights are equal
+	 *
+	 * @param expected
+	 *            the expected weights
+	 * @param actual
+	 *            the weights to be checked
+	 * @param tolerance
+	 *            the absolute tolerance
+	 */
+	static void assertWeights(double[] expected, double[] actual, double tolerance) {
+		assertEquals("number of instances", expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("weight of instance " + i, expected[i], actual[i], tolerance);
+		}
+	}
+
+	public void testParallelMatchesSequential() throws Exception {
+		// several batches of rows per task
+		Instances data = data(5000, 1);
+
+		RelevanceClusteringClosestCentrHighRel sequential = new RelevanceClusteringClosestCentrHighRel();
+		sequential.setNumExecutionSlots(1);
+		double[] expected = weights(sequential, data);
+
+		RelevanceClusteringClosestCentrHighRel parallel = new RelevanceClusteringClosestCentrHighRel();
+		parallel.setNumExecutionSlots(4);
+		assertWeights(expected, weights(parallel, data), 0.0);
+	}
+
+	public void testDefaultSlotsDoNotDependOnTheMachine() throws Exception {
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		assertEquals("default number of slots", 0, filter.getNumExecutionSlots());
+		assertEquals("-num-slots in the options", "0", Utils.getOption("num-slots", filter.getOptions()));
+	}
+
+	public void testReservoirSizesByLargestRemainder() {
+		// one per stratum, then 7 shared as 89 : 8 : 0
+		assertTrue(Arrays.equals(new int[] { 7, 2, 1 },
+				RelevanceClusteringClosestCentrHighRel.reservoirSizes(new int[] { 90, 9, 1 }, 100, 10)));
+		// empty strata get nothing
+		assertTrue(Arrays.equals(new int[] { 0, 2, 0, 1 },
+				RelevanceClusteringClosestCentrHighRel.reservoirSizes(new int[] { 0, 10, 0, 5 }, 15, 3)));
+	}
+
+	public void testReservoirSizesNeverEmpty() {
+		Random random = new Random(1);
+		for (int run = 0; run < 1000; run++) {
+			int[] stratumSizes = new int[1 + random.nextInt(5)];
+			int numInstances = 0;
+			for (int s = 0; s < stratumSizes.length; s++) {
+				stratumSizes[s] = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(run % 2 == 0 ? 3 : 300);
+				numInstances += stratumSizes[s];
+			}
+			if (numInstances < 2) {
+				continue;
+			}
+			int size = 1 + random.nextInt(numInstances - 1);
+			int[] sizes = RelevanceClusteringClosestCentrHighRel.reservoirSizes(stratumSizes, numInstances, size);
+
+			int total = 0;
+			int numNonEmpty = 0;
+			for (int s = 0; s < sizes.length; s++) {
+				String stratum = Arrays.toString(stratumSizes) + " size " + size + ": stratum " + s;
+				assertTrue(stratum + " oversampled", sizes[s] <= stratumSizes[s]);
+				total += sizes[s];
+				if (stratumSizes[s] > 0) {
+					numNonEmpty++;
+				}
+			}
+			assertEquals(Arrays.toString(stratumSizes) + " sample size", size, total);
+			for (int s = 0; s < sizes.length; s++) {
+				if (stratumSizes[s] > 0 && size >= numNonEmpty) {
+					assertTrue(Arrays.toString(stratumSizes) + " size " + size + ": stratum " + s + " left out",
+							sizes[s] > 0);
+				}
+			}
+		}
+	}
+
+	public void testStratifiedSampleKeepsRareClasses() throws Exception {
+		Instances data = data(1000, 2);
+		for (int i = 0; i < data.numInstances(); i++) {
+			data.instance(i).setClassValue(i % 500 == 0 ? "yes" : "no");
+		}
+
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setSampleSize(20);
+		filter.setStratifySample(true);
+		boolean[] selected = filter.sample(data);
+
+		int numSelected = 0;
+		int numRare = 0;
+		for (int i = 0; i < selected.length; i++) {
+			if (selected[i]) {
+				numSelected++;
+				if (i % 500 == 0) {
+					numRare++;
+				}
+			}
+		}
+		assertEquals("sample size", 20, numSelected);
+		assertEquals("rare instances sampled", 1, numRare);
+	}
+
+	public void testSampledFitScoresEveryInstance() throws Exception {
+		Instances data = data(2000, 3);
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setNumExecutionSlots(1);
+		filter.setSampleSize(200);
+		filter.setStratifySample(true);
+		double[] weights = weights(filter, data);
+
+		assertEquals("number of instances", data.numInstances(), weights.length);
+		for (int i = 0; i < weights.length; i++) {
+			assertTrue("weight of instance " + i, weights[i] > 0);
+		}
+	}
+
+	public void testLaterBatchesReuseTheCentroids() throws Exception {
+		Instances first = data(1000, 4);
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setNumExecutionSlots(1);
+		double[] expected = weights(filter, first);
+
+		// the same data again: same centroids, same shift
+		assertWeights(expected, nextBatch(filter, first), 0.0);
+
+		// other data: still weighted against the first batch's centroids
+		Instances later = shift(data(1000, 5), 2);
+		RelevanceClusteringClosestCentrHighRel fresh = new RelevanceClusteringClosestCentrHighRel();
+		fresh.setNumExecutionSlots(1);
+		double[] refitted = weights(fresh, new Instances(later));
+		double[] reused = nextBatch(filter, later);
+		assertEquals("number of instances", refitted.length, reused.length);
+		assertFalse("the later batch was refitted", Arrays.equals(refitted, reused));
+	}
+
+	public void testRefitClustersEveryBatch() throws Exception {
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setNumExecutionSlots(1);
+		filter.setRefit(true);
+		weights(filter, data(1000, 4));
+
+		Instances later = shift(data(1000, 5), 2);
+		RelevanceClusteringClosestCentrHighRel fresh = new RelevanceClusteringClosestCentrHighRel();
+		fresh.setNumExecutionSlots(1);
+		assertWeights(weights(fresh, new Instances(later)), nextBatch(filter, later), 0.0);
+	}
+
+	public void testSparseMatchesDense() throws Exception {
+		Instances dense = data(1000, 6);
+		// mostly zeros, as in sparse data
+		for (int i = 0; i < dense.numInstances(); i++) {
+			for (int j = 0; j < dense.classIndex(); j++) {
+				if ((i + j) % 3 != 0) {
+					dense.instance(i).setValue(j, 0);
+				}
+			}
+		}
+		Instances sparse = new Instances(dense, dense.numInstances());
+		for (int i = 0; i < dense.numInstances(); i++) {
+			sparse.add(new SparseInstance(dense.instance(i)));
+		}
+
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setNumExecutionSlots(1);
+		double[] expected = weights(filter, dense);
+		filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setNumExecutionSlots(1);
+		double[] actual = weights(filter, sparse);
+
+		// the distances are summed over the non-zeros only, in another order
+		assertEquals("number of instances", expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("weight of instance " + i, expected[i], actual[i], 1e-9 * expected[i]);
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(RelevanceClusteringClosestCentrHighRelTest.class);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Tests of the single instance scorer of the relevance filter
+ */
+package weka.filters.unsupervised.instance;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Tests that the scorer of a fitted relevance filter gives each instance the
+ * weight the filter gives it, whichever way the instance is passed.
+ * <p/>
+ * Run from the command line with:
+ * <p/>
+ * java weka.filters.unsupervised.instance.RelevanceScorerTest
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class RelevanceScorerTest extends TestCase {
+
+	public RelevanceScorerTest(String name) {
+		super(name);
+	}
+
+	/***
+	 * Fits a filter and checks its scorer against the weights it gives
+	 *
+	 * @param filter
+	 *            the filter, set up
+	 * @param tolerance
+	 *            the relative tolerance of the dense scores
+	 * @param sparseTolerance
+	 *            the relative tolerance of the sparse scores, which are
+	 *            always computed in double precision
+	 * @throws Exception
+	 *             if the data cannot be filtered or scored
+	 */
+	static void checkScorer(RelevanceClusteringClosestCentrHighRel filter, double tolerance, double sparseTolerance)
+			throws Exception {
+		Instances data = RelevanceClusteringClosestCentrHighRelTest.data(2000, 7);
+		double[] weights = RelevanceClusteringClosestCentrHighRelTest.weights(filter, data);
+		RelevanceScorer scorer = filter.createScorer();
+
+		for (int i = 0; i < weights.length; i++) {
+			double weight = weights[i];
+			assertEquals("score of instance " + i, weight, scorer.relevance(data.instance(i)), tolerance * weight);
+			assertEquals("score of the values of instance " + i, weight,
+					scorer.relevance(data.instance(i).toDoubleArray()), tolerance * weight);
+			assertEquals("score of sparse instance " + i, weight,
+					scorer.relevance(new SparseInstance(data.instance(i))), sparseTolerance * weight);
+		}
+	}
+
+	public void testScoresMatchWeights() throws Exception {
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setNumExecutionSlots(1);
+		checkScorer(filter, 1e-12, 1e-9);
+	}
+
+	public void testSinglePrecisionScoresMatchWeights() throws Exception {
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setNumExecutionSlots(1);
+		filter.setSinglePrecision(true);
+		checkScorer(filter, 1e-12, 1e-5);
+	}
+
+	public void testScorerSharedByThreads() throws Exception {
+		final Instances data = RelevanceClusteringClosestCentrHighRelTest.data(1000, 8);
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setNumExecutionSlots(1);
+		final double[] weights = RelevanceClusteringClosestCentrHighRelTest.weights(filter, data);
+		final RelevanceScorer scorer = filter.createScorer();
+
+		final String[] failure = new String[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int run = 0; run < 20; run++) {
+							for (int i = 0; i < weights.length; i++) {
+								double score = scorer.relevance(i % 2 == 0 ? data.instance(i)
+										: new SparseInstance(data.instance(i)));
+								if (Math.abs(score - weights[i]) > 1e-9 * weights[i]) {
+									failure[0] = "score of instance " + i + ": " + score + " instead of " + weights[i];
+								}
+							}
+						}
+					} catch (Exception e) {
+						failure[0] = e.toString();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure[0] != null) {
+			fail(failure[0]);
+		}
+	}
+
+	public void testUnfittedFilterRejected() throws Exception {
+		RelevanceClusteringClosestCentrHighRel filter = new RelevanceClusteringClosestCentrHighRel();
+		filter.setInputFormat(RelevanceClusteringClosestCentrHighRelTest.data(10, 1));
+		try {
+			filter.createScorer();
+			fail("A filter which has not been fitted has no scorer");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(RelevanceScorerTest.class);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -0,0 +1,245 @@
+/**
+ * Tests of the streaming variant of the relevance filter
+ */
+package weka.filters.unsupervised.instance;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.clusterers.FarthestFirst;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.filters.unsupervised.instance.RelevanceClusteringClosestCentrHighRel.ClosestCentroidImpact;
+
+/**
+ * Tests the two pass mode of the streaming relevance filter against the batch
+ * filter, and the updates of the centroids along the stream.
+ * <p/>
+ * Run from the command line with:
+ * <p/>
+ * java weka.filters.unsupervised.instance.StreamingRelevanceClusteringClosestCentrHighRelTest
+ *
+ * @author Lucian Sasu lmsasu &lt;at&gt; yahoo dot com
+ */
+public class StreamingRelevanceClusteringClosestCentrHighRelTest extends TestCase {
+
+	/** the input and output files, deleted after each test */
+	protected File m_input;
+	protected File m_output;
+
+	public StreamingRelevanceClusteringClosestCentrHighRelTest(String name) {
+		super(name);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		m_input = File.createTempFile("input", ".arff");
+		m_output = File.createTempFile("output", ".arff");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		m_input.delete();
+		m_output.delete();
+		super.tearDown();
+	}
+
+	/***
+	 * Filters a file in two passes, with the head sample covering the whole
+	 * file, and checks the weights against the batch filter
+	 *
+	 * @param batch
+	 *            the batch filter, set up
+	 * @param streaming
+	 *            the streaming filter, set up as the batch one
+	 * @throws Exception
+	 *             if the data cannot be filtered
+	 */
+	protected void checkTwoPass(RelevanceClusteringClosestCentrHighRel batch,
+			StreamingRelevanceClusteringClosestCentrHighRel streaming) throws Exception {
+		FileWriter writer = new FileWriter(m_input);
+		try {
+			writer.write(RelevanceClusteringClosestCentrHighRelTest.data(800, 3).toString());
+		} finally {
+			writer.close();
+		}
+		// read back, so that both filters see the values as written
+		Instances data = new DataSource(m_input.getPath()).getDataSet(4);
+		double[] expected = RelevanceClusteringClosestCentrHighRelTest.weights(batch, data);
+
+		streaming.setHeadSampleSize(data.numInstances());
+		streaming.filterTwoPass(m_input, m_output, "last");
+
+		// the weights are written with six decimals
+		Instances filtered = new DataSource(m_output.getPath()).getDataSet(4);
+		RelevanceClusteringClosestCentrHighRelTest.assertWeights(expected,
+				RelevanceClusteringClosestCentrHighRelTest.weights(filtered), 1e-6);
+	}
+
+	public void testTwoPassMatchesBatch() throws Exception {
+		RelevanceClusteringClosestCentrHighRel batch = new RelevanceClusteringClosestCentrHighRel();
+		batch.setNumExecutionSlots(1);
+		StreamingRelevanceClusteringClosestCentrHighRel streaming = new StreamingRelevanceClusteringClosestCentrHighRel();
+		streaming.setNumExecutionSlots(1);
+		checkTwoPass(batch, streaming);
+	}
+
+	public void testTwoPassZeroRelevance() throws Exception {
+		// the centroids are instances, at distance and so relevance 0: no shift
+		SelectedTag lowRelevance = new SelectedTag(ClosestCentroidImpact.ClosestCentroidLowRelevance.ordinal(),
+				RelevanceClusteringClosestCentrHighRel.CLOSEST_CENTROID_IMPACT_SELECTION);
+		RelevanceClusteringClosestCentrHighRel batch = new RelevanceClusteringClosestCentrHighRel();
+		batch.setNumExecutionSlots(1);
+		batch.setClosestCentroidImpact(lowRelevance);
+		batch.setClusterer(new FarthestFirst());
+		StreamingRelevanceClusteringClosestCentrHighRel streaming = new StreamingRelevanceClusteringClosestCentrHighRel();
+		streaming.setNumExecutionSlots(1);
+		streaming.setClosestCentroidImpact(lowRelevance);
+		streaming.setClusterer(new FarthestFirst());
+		checkTwoPass(batch, streaming);
+
+		Instances filtered = new DataSource(m_output.getPath()).getDataSet(4);
+		double minWeight = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < filtered.numInstances(); i++) {
+			minWeight = Math.min(minWeight, filtered.instance(i).weight());
+		}
+		assertEquals("weight of the centroids", 0.0, minWeight, 0.0);
+	}
+
+	/***
+	 * Sets up a filter as if it was updating two dimensional centroids
+	 *
+	 * @param centroids
+	 *            the centroids being updated, packed row by row
+	 * @param counts
+	 *            the number of instances seen by each centroid
+	 * @param variances
+	 *            the variances around the centroids, packed as them
+	 * @return the filter
+	 */
+	static StreamingRelevanceClusteringClosestCentrHighRel updating(double[] centroids, double[] counts,
+			double[] variances) {
+		StreamingRelevanceClusteringClosestCentrHighRel filter = new StreamingRelevanceClusteringClosestCentrHighRel();
+		filter.m_attributeOrder = new int[] { 0, 1 };
+		filter.m_updated = centroids;
+		filter.m_counts = counts;
+		filter.m_variances = variances;
+		return filter;
+	}
+
+	/***
+	 * Checks that two arrays are equal
+	 *
+	 * @param name
+	 *            what the arrays hold
+	 * @param expected
+	 *            the expected values
+	 * @param actual
+	 *            the values to be checked
+	 */
+	static void assertValues(String name, double[] expected, double[] actual) {
+		assertEquals(name + ": length", expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(name + " " + i, expected[i], actual[i], 1e-12);
+		}
+	}
+
+	public void testMergeClosestCentroids() {
+		double[] variances = new double[6];
+		Arrays.fill(variances, 1);
+		StreamingRelevanceClusteringClosestCentrHighRel filter = updating(new double[] { 0, 0, 0.1, 0, 10, 10 },
+				new double[] { 10, 30, 10 }, variances);
+		filter.mergeClosestCentroids();
+
+		// the first two are pooled, the last one takes the place of the second
+		assertValues("centroids", new double[] { 0.075, 0, 10, 10 }, filter.m_updated);
+		assertValues("counts", new double[] { 40, 10 }, filter.m_counts);
+		assertValues("variances", new double[] { (10 * (1 + 0.075 * 0.075) + 30 * (1 + 0.025 * 0.025)) / 40, 1, 1, 1 },
+				filter.m_variances);
+	}
+
+	public void testNoMergeOutsideTheSpread() {
+		double[] variances = new double[6];
+		Arrays.fill(variances, 1);
+		StreamingRelevanceClusteringClosestCentrHighRel filter = updating(new double[] { 0, 0, 5, 0, 10, 10 },
+				new double[] { 10, 30, 10 }, variances);
+		filter.mergeClosestCentroids();
+		assertEquals("number of centroids", 3, filter.m_counts.length);
+	}
+
+	public void testNoMergeAtTheMinimumNumberOfClusters() {
+		double[] variances = new double[6];
+		Arrays.fill(variances, 1);
+		StreamingRelevanceClusteringClosestCentrHighRel filter = updating(new double[] { 0, 0, 0.1, 0, 10, 10 },
+				new double[] { 10, 30, 10 }, variances);
+		filter.setMinNumClusters(3);
+		filter.mergeClosestCentroids();
+		assertEquals("number of centroids", 3, filter.m_counts.length);
+	}
+
+	public void testSplitWidestCentroid() {
+		StreamingRelevanceClusteringClosestCentrHighRel filter = updating(new double[] { 0, 0, 10, 0, 0, 10 },
+				new double[] { 100, 100, 100 }, new double[] { 9, 1, 0.5, 0.5, 0.5, 0.5 });
+		filter.splitWidestCentroid();
+
+		// the halves of a normal distribution along the first attribute
+		double offset = Math.sqrt(2 / Math.PI * 9);
+		double variance = (1 - 2 / Math.PI) * 9;
+		assertValues("centroids", new double[] { -offset, 0, 10, 0, 0, 10, offset, 0 }, filter.m_updated);
+		assertValues("counts", new double[] { 50, 100, 100, 50 }, filter.m_counts);
+		assertValues("variances", new double[] { variance, 1, 0.5, 0.5, 0.5, 0.5, variance, 1 }, filter.m_variances);
+	}
+
+	public void testNoSplitOfSmallCentroids() {
+		StreamingRelevanceClusteringClosestCentrHighRel filter = updating(new double[] { 0, 0, 10, 0, 0, 10 },
+				new double[] { StreamingRelevanceClusteringClosestCentrHighRel.MIN_SPLIT_COUNT - 1, 100, 100 },
+				new double[] { 9, 1, 0.5, 0.5, 0.5, 0.5 });
+		filter.splitWidestCentroid();
+		assertEquals("number of centroids", 3, filter.m_counts.length);
+	}
+
+	public void testUpdatesFollowTheStream() throws Exception {
+		Instances head = RelevanceClusteringClosestCentrHighRelTest.data(1000, 4);
+		StreamingRelevanceClusteringClosestCentrHighRel filter = new StreamingRelevanceClusteringClosestCentrHighRel();
+		filter.setNumExecutionSlots(1);
+		filter.setHeadSampleSize(head.numInstances());
+		filter.setUpdateCentroids(true);
+		filter.setUpdateInterval(100);
+		filter.setInputFormat(head);
+		for (int i = 0; i < head.numInstances(); i++) {
+			filter.input(head.instance(i));
+		}
+		double[] fitted = filter.m_centroids;
+
+		// the stream drifts away from the head sample, each cluster staying
+		// closest to its own centroid
+		Instances drifted = RelevanceClusteringClosestCentrHighRelTest.shift(
+				RelevanceClusteringClosestCentrHighRelTest.data(3000, 5), 1);
+		for (int i = 0; i < drifted.numInstances(); i++) {
+			assertTrue("instance " + i + " held back", filter.input(drifted.instance(i)));
+		}
+		filter.batchFinished();
+		assertEquals("instances output", head.numInstances() + drifted.numInstances(), filter.numPendingOutput());
+
+		// each centroid has seen about a third of the head sample, then as many
+		// drifted instances as the head sample: it covers about 3/4 of the drift
+		assertEquals("number of centroids", fitted.length, filter.m_centroids.length);
+		for (int i = 0; i < fitted.length; i++) {
+			assertEquals("drift of centroid value " + i, 0.75, filter.m_centroids[i] - fitted[i], 0.2);
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(StreamingRelevanceClusteringClosestCentrHighRelTest.class);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}